@@ -2,13 +2,24 @@ package me.bennettca.nio;
 
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.*;
+import me.bennettca.nio.channel.FlushCoalescingHandler;
 import me.bennettca.nio.protocol.Packet;
 import me.bennettca.nio.protocol.PacketRegistry;
 import me.bennettca.nio.protocol.packet.RequestPacket;
-import me.bennettca.nio.protocol.packet.ResponsePacket;
+import me.bennettca.nio.request.FutureResponseHandler;
+import me.bennettca.nio.request.InFlightWindow;
+import me.bennettca.nio.request.LatencyHistogram;
+import me.bennettca.nio.request.Request;
+import me.bennettca.nio.request.RequestRejectedException;
+import me.bennettca.nio.request.RequestPool;
+import me.bennettca.nio.request.Response;
 import me.bennettca.nio.request.ResponseHandler;
 
 import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 public abstract class AbstractConnection implements Connection {
 
@@ -28,6 +39,15 @@ public abstract class AbstractConnection implements Connection {
         return channel.writeAndFlush(packet, promise);
     }
 
+    @Override
+    public ChannelFuture sendImmediate(Packet packet) {
+        getPacketRegistry().validate(packet);
+        checkActive();
+        ChannelFuture future = channel.write(packet);
+        FlushCoalescingHandler.flushImmediately(channel);
+        return future;
+    }
+
     @Override
     public void send(Iterable<Packet> packets) {
         if (packets == null) {
@@ -69,13 +89,74 @@ public abstract class AbstractConnection implements Connection {
         return request(packet, handler, false);
     }
 
+    @Override
+    public ChannelFuture request(Packet packet,
+            ResponseHandler handler, boolean timed) {
+        return request(packet, handler, timed, getRequestPool()
+                .getDefaultTimeoutNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public ChannelFuture request(Packet packet, ResponseHandler handler,
+            boolean timed, long timeout, TimeUnit unit) {
+        getPacketRegistry().validate(packet);
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        checkActive();
+        RequestPool pool = getRequestPool();
+        InFlightWindow window = pool.getWindow();
+        if (window == null) {
+            return sendRequest(pool, null, packet, handler, timed, timeout, unit);
+        }
+
+        DeferredRequest deferred = null;
+        if (window.getPolicy() == InFlightWindow.OverflowPolicy.QUEUE) {
+            deferred = new DeferredRequest(packet, handler, timed, timeout, unit, channel.newPromise());
+        }
+        try {
+            if (!window.acquire(deferred, timeout, unit, canBlock())) {
+                return deferred.promise;
+            }
+        } catch (RequestRejectedException e) {
+            handler.requestFailed();
+            return channel.newFailedFuture(e);
+        }
+        return sendRequest(pool, window, packet, handler, timed, timeout, unit);
+    }
+
+    @Override
+    public CompletionStage<Response> requestAsync(Packet packet, Duration timeout) {
+        return requestAsync(packet, timeout, null);
+    }
+
+    @Override
+    public CompletionStage<Response> requestAsync(Packet packet, Duration timeout, Executor executor) {
+        if (timeout == null) {
+            throw new NullPointerException("timeout");
+        }
+        FutureResponseHandler handler = new FutureResponseHandler(executor, getRequestPool().isRecycling());
+        try {
+            request(packet, handler, false, timeout.toNanos(), TimeUnit.NANOSECONDS)
+                    .addListener((ChannelFutureListener) f -> {
+                        if (!f.isSuccess()) {
+                            handler.fail(f.cause());
+                        }
+                    });
+        } catch (RuntimeException e) {
+            // request releases any window slot it acquired before throwing.
+            handler.fail(e);
+        }
+        return handler.future();
+    }
+
     @Override
     public ChannelFuture respond(RequestPacket request, Packet response) {
         if (request == null) {
             throw new NullPointerException("request");
         }
         getPacketRegistry().validate(response);
-        return send(new ResponsePacket(request.getUniqueId(), response));
+        return send(getRequestPool().newResponsePacket(request.getUniqueId(), response));
     }
 
     @Override
@@ -176,6 +257,107 @@ public abstract class AbstractConnection implements Connection {
         return getClass().getSimpleName() + '(' + channel.toString() + ')';
     }
 
+    /**
+     * Whether the calling thread may be blocked waiting for a slot in
+     * the in-flight window. Threads which handle responses must never block.
+     *
+     * @return true if the current thread may block
+     */
+    protected boolean canBlock() {
+        return !channel.eventLoop().inEventLoop();
+    }
+
+    /**
+     * Get the pool tracking requests sent over this connection.
+     *
+     * @return request pool of this connection
+     */
+    protected abstract RequestPool getRequestPool();
+
+    /**
+     * Get the histogram recording the round trip time of requests sent
+     * over this connection, in addition to the stats of the request pool.
+     *
+     * @return latency histogram of this connection, or null
+     */
+    protected LatencyHistogram getLatencyHistogram() {
+        return null;
+    }
+
+    /**
+     * Track and send a request. The window slot acquired for the request
+     * is released here if it could not be tracked, and by the pool once
+     * it was tracked, so it is never released twice.
+     */
+    private ChannelFuture sendRequest(RequestPool pool, InFlightWindow window, Packet packet,
+            ResponseHandler handler, boolean timed, long timeout, TimeUnit unit) {
+        long id;
+        try {
+            id = pool.track(pool.newRequest(handler, timed), packet, getLatencyHistogram(), timeout, unit);
+        } catch (RuntimeException e) {
+            if (window != null) {
+                window.release();
+            }
+            throw e;
+        }
+        try {
+            return send(pool.newRequestPacket(id, packet));
+        } catch (RuntimeException e) {
+            Request request = pool.take(id);
+            if (request != null) {
+                request.release();
+            }
+            throw e;
+        }
+    }
+
+    private final class DeferredRequest implements InFlightWindow.Deferred {
+
+        private final Packet packet;
+        private final ResponseHandler handler;
+        private final boolean timed;
+        private final long timeout;
+        private final TimeUnit unit;
+        private final ChannelPromise promise;
+
+        DeferredRequest(Packet packet, ResponseHandler handler, boolean timed,
+                long timeout, TimeUnit unit, ChannelPromise promise) {
+            this.packet = packet;
+            this.handler = handler;
+            this.timed = timed;
+            this.timeout = timeout;
+            this.unit = unit;
+            this.promise = promise;
+        }
+
+        @Override
+        public void run() {
+            RequestPool pool = getRequestPool();
+            long id;
+            try {
+                checkActive();
+                id = pool.track(pool.newRequest(handler, timed), packet,
+                        getLatencyHistogram(), timeout, unit);
+            } catch (RuntimeException e) {
+                pool.getWindow().release();
+                fail(e);
+                return;
+            }
+            channel.writeAndFlush(pool.newRequestPacket(id, packet), promise);
+        }
+
+        @Override
+        public void fail(Throwable cause) {
+            promise.tryFailure(cause);
+            handler.requestFailed();
+        }
+
+        @Override
+        public RequestPool getPool() {
+            return getRequestPool();
+        }
+    }
+
     private void checkActive() {
         if (channel == null) {
             throw new NullPointerException("channel");
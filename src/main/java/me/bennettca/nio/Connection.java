@@ -7,10 +7,15 @@ import io.netty.channel.ChannelId;
 import io.netty.channel.ChannelPromise;
 import me.bennettca.nio.protocol.PacketRegistry;
 import me.bennettca.nio.protocol.packet.RequestPacket;
+import me.bennettca.nio.request.Response;
 import me.bennettca.nio.request.ResponseHandler;
 import me.bennettca.nio.protocol.Packet;
 
 import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 public interface Connection {
 
@@ -31,6 +36,16 @@ public interface Connection {
      */
     ChannelFuture send(Packet packet, ChannelPromise promise);
 
+    /**
+     * Send packet to remote host and flush it right away, even if
+     * flushes are being coalesced on this connection. Use for latency
+     * sensitive packets.
+     *
+     * @param packet packet to send
+     * @return ChannelFuture returned by underlying channel
+     */
+    ChannelFuture sendImmediate(Packet packet);
+
     /**
      * Send multiple packets to remote host. Always use this method
      * instead of the single method. It executes send in the
@@ -71,6 +86,43 @@ public interface Connection {
     ChannelFuture request(Packet packet,
             ResponseHandler handler, boolean timed);
 
+    /**
+     * Request a packet to be sent and handled in the given handler.
+     * The request fails if no response is received within the timeout.
+     *
+     * @param packet  packet to send
+     * @param handler handler to be used
+     * @param timed   whether the round trip time should be measured
+     * @param timeout time to wait for a response
+     * @param unit    unit of the timeout
+     * @return ChannelFuture returned by underlying channel
+     */
+    ChannelFuture request(Packet packet, ResponseHandler handler,
+            boolean timed, long timeout, TimeUnit unit);
+
+    /**
+     * Request a packet to be sent, returning a stage completed with the
+     * response. The stage is completed from the thread which handles the
+     * response and fails with a {@link me.bennettca.nio.request.RequestFailedException}
+     * if no response arrives within the timeout.
+     *
+     * @param packet  packet to send
+     * @param timeout time to wait for a response
+     * @return stage completed with the response
+     */
+    CompletionStage<Response> requestAsync(Packet packet, Duration timeout);
+
+    /**
+     * Request a packet to be sent, returning a stage completed with the
+     * response through the given executor.
+     *
+     * @param packet   packet to send
+     * @param timeout  time to wait for a response
+     * @param executor executor used to complete the stage
+     * @return stage completed with the response
+     */
+    CompletionStage<Response> requestAsync(Packet packet, Duration timeout, Executor executor);
+
     ChannelFuture respond(RequestPacket request, Packet response);
 
     void flush();
@@ -0,0 +1,98 @@
+package me.bennettca.nio;
+
+import me.bennettca.nio.protocol.Packet;
+import me.bennettca.nio.protocol.PacketRegistry;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * Typed packet handlers stored in an array indexed by packet id, offset
+ * by {@link PacketRegistry#ID_OFFSET} like the factories of the registry,
+ * so a received packet is dispatched with a single array load.
+ * Registration copies the array and is expected to be rare.
+ *
+ * @param <C> type of connection packets are received from
+ */
+public final class PacketDispatcher<C extends Connection> {
+
+    private final PacketRegistry registry;
+    private volatile BiConsumer<C, Packet>[] handlers = newTable(0);
+
+    public PacketDispatcher(PacketRegistry registry) {
+        if (registry == null) {
+            throw new NullPointerException("registry");
+        }
+        this.registry = registry;
+    }
+
+    /**
+     * Handle received packets of a type. Handlers registered for the same
+     * type are called in registration order.
+     *
+     * @param type    packet class, which must be registered
+     * @param handler handler called with every packet of the type
+     * @param <P>     type of the packet
+     */
+    public <P extends Packet> void on(Class<P> type, BiConsumer<? super C, ? super P> handler) {
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        int index = registry.getId(type) + PacketRegistry.ID_OFFSET;
+        BiConsumer<C, Packet> typed = (connection, packet) -> handler.accept(connection, type.cast(packet));
+        synchronized (this) {
+            BiConsumer<C, Packet>[] table = handlers;
+            if (index >= table.length) {
+                table = Arrays.copyOf(table, Math.max(index + 1, table.length << 1));
+            } else {
+                table = table.clone();
+            }
+            table[index] = table[index] == null ? typed : table[index].andThen(typed);
+            handlers = table;
+        }
+    }
+
+    /**
+     * Remove all handlers of a packet type.
+     *
+     * @param type packet class
+     * @return true if any handler was removed
+     */
+    public synchronized boolean off(Class<? extends Packet> type) {
+        int index = registry.getId(type) + PacketRegistry.ID_OFFSET;
+        BiConsumer<C, Packet>[] table = handlers;
+        if (index >= table.length || table[index] == null) {
+            return false;
+        }
+        table = table.clone();
+        table[index] = null;
+        handlers = table;
+        return true;
+    }
+
+    /**
+     * Call the handlers registered for a packet.
+     *
+     * @param connection connection the packet was received from
+     * @param packet     received packet
+     * @return true if a handler was registered for the packet
+     */
+    public boolean dispatch(C connection, Packet packet) {
+        BiConsumer<C, Packet>[] table = handlers;
+        int index = packet.getId() + PacketRegistry.ID_OFFSET;
+        if (index < 0 || index >= table.length) {
+            return false;
+        }
+        BiConsumer<C, Packet> handler = table[index];
+        if (handler == null) {
+            return false;
+        }
+        handler.accept(connection, packet);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <C> BiConsumer<C, Packet>[] newTable(int length) {
+        return (BiConsumer<C, Packet>[]) new BiConsumer<?, ?>[length];
+    }
+}
@@ -0,0 +1,143 @@
+package me.bennettca.nio.channel;
+
+import io.netty.channel.Channel;
+import me.bennettca.nio.protocol.Packet;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Outbound queue keeping only the newest pending packet per conflation
+ * key. Packets are written from the event loop of the channel in batches
+ * while the channel is writable, so a slow connection receives the
+ * latest state instead of every stale update in between. Keys are sent
+ * in the order they were first queued.
+ */
+public final class ConflatingQueue {
+
+    /**
+     * Maximum number of packets written per event loop task.
+     */
+    public static final int BATCH_SIZE = 128;
+
+    private final Channel channel;
+    private final Map<Object, Packet> pending = new ConcurrentHashMap<>();
+    private final Queue<Object> keys = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable drainTask = this::drain;
+
+    private final LongAdder sentCount = new LongAdder();
+    private final LongAdder conflatedCount = new LongAdder();
+
+    public ConflatingQueue(Channel channel) {
+        if (channel == null) {
+            throw new NullPointerException("channel");
+        }
+        this.channel = channel;
+    }
+
+    /**
+     * Queue a packet, replacing any pending packet with the same key.
+     *
+     * @param key    conflation key
+     * @param packet packet to send
+     */
+    public void offer(Object key, Packet packet) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        if (packet == null) {
+            throw new NullPointerException("packet");
+        }
+        Packet replaced = pending.put(key, packet);
+        if (replaced == null) {
+            keys.add(key);
+        } else {
+            SlowConsumerHandler.discard(replaced);
+            conflatedCount.increment();
+        }
+        schedule();
+    }
+
+    /**
+     * Resume writing pending packets, e.g. once the channel became
+     * writable again.
+     */
+    public void resume() {
+        if (!keys.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Discard all pending packets.
+     */
+    public void clear() {
+        Object key;
+        while ((key = keys.poll()) != null) {
+            Packet packet = pending.remove(key);
+            if (packet != null) {
+                SlowConsumerHandler.discard(packet);
+            }
+        }
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    public long getSentCount() {
+        return sentCount.sum();
+    }
+
+    /**
+     * @return number of pending packets replaced by newer ones
+     */
+    public long getConflatedCount() {
+        return conflatedCount.sum();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            channel.eventLoop().execute(drainTask);
+        }
+    }
+
+    private void drain() {
+        if (!channel.isActive()) {
+            clear();
+            scheduled.set(false);
+            return;
+        }
+        int written = 0;
+        while (written < BATCH_SIZE && channel.isWritable()) {
+            Object key = keys.poll();
+            if (key == null) {
+                break;
+            }
+            Packet packet = pending.remove(key);
+            if (packet != null) {
+                channel.write(packet, channel.voidPromise());
+                written++;
+            }
+        }
+        if (written > 0) {
+            channel.flush();
+            sentCount.add(written);
+        }
+        scheduled.set(false);
+        if (!keys.isEmpty() && channel.isWritable()) {
+            schedule();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ConflatingQueue(pending: " + size() + ", sent: " + getSentCount()
+                + ", conflated: " + getConflatedCount() + ')';
+    }
+}
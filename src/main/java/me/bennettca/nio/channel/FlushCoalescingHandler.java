@@ -0,0 +1,135 @@
+package me.bennettca.nio.channel;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces flushes according to a {@link FlushPolicy}. Must be placed
+ * between the encoder and the head of the pipeline so that the size of
+ * encoded frames can be counted.
+ */
+public final class FlushCoalescingHandler extends ChannelHandlerAdapter {
+
+    private final FlushPolicy policy;
+    private final Runnable flushTask = this::flushNow;
+
+    private ChannelHandlerContext ctx;
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean flushRequested;
+    private boolean flushQueued;
+    private int pendingWrites;
+    private long pendingBytes;
+
+    public FlushCoalescingHandler(FlushPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("policy");
+        }
+        this.policy = policy;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        flushNow();
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        pendingWrites++;
+        if (msg instanceof ByteBuf) {
+            pendingBytes += ((ByteBuf) msg).readableBytes();
+        }
+        ctx.write(msg, promise);
+        if (flushRequested && isFull()) {
+            flushNow();
+        }
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        if (pendingWrites == 0) {
+            return;
+        }
+        flushRequested = true;
+        if (isFull()) {
+            flushNow();
+            return;
+        }
+        long delay = policy.getMaxDelayNanos();
+        if (delay == 0) {
+            if (!flushQueued) {
+                flushQueued = true;
+                ctx.executor().execute(flushTask);
+            }
+        } else if (scheduledFlush == null) {
+            scheduledFlush = ctx.executor().schedule(flushTask, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushNow();
+        ctx.close(promise);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        flushNow();
+        ctx.disconnect(promise);
+    }
+
+    /**
+     * Flush everything pending on the channel right away, bypassing
+     * the flush policy. Must be called from the channel's event loop.
+     */
+    public void flushNow() {
+        flushQueued = false;
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        flushRequested = false;
+        pendingWrites = 0;
+        pendingBytes = 0;
+        ctx.flush();
+    }
+
+    public FlushPolicy getPolicy() {
+        return policy;
+    }
+
+    private boolean isFull() {
+        return pendingWrites >= policy.getMaxPendingWrites()
+                || pendingBytes >= policy.getMaxPendingBytes();
+    }
+
+    /**
+     * Flush a channel immediately. If the channel coalesces flushes,
+     * the coalescing handler is bypassed.
+     *
+     * @param channel channel to flush
+     */
+    public static void flushImmediately(Channel channel) {
+        ChannelHandlerContext ctx = channel.pipeline().context(FlushCoalescingHandler.class);
+        if (ctx == null) {
+            channel.flush();
+            return;
+        }
+        FlushCoalescingHandler handler = (FlushCoalescingHandler) ctx.handler();
+        if (ctx.executor().inEventLoop()) {
+            handler.flushNow();
+        } else {
+            ctx.executor().execute(handler.flushTask);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package me.bennettca.nio.channel;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits used to coalesce flushes on a channel. A requested flush is
+ * delayed until either enough writes or bytes are pending, or the
+ * delay since the first deferred flush request has passed.
+ */
+public final class FlushPolicy {
+
+    private final int maxPendingWrites;
+    private final int maxPendingBytes;
+    private final long maxDelayNanos;
+
+    /**
+     * Construct a flush policy.
+     *
+     * @param maxPendingWrites flush once this many writes are pending
+     * @param maxPendingBytes  flush once this many bytes are pending
+     * @param maxDelay         longest time a requested flush may be delayed,
+     *                         0 to flush once the current io task completes
+     * @param unit             unit of the delay
+     */
+    public FlushPolicy(int maxPendingWrites, int maxPendingBytes, long maxDelay, TimeUnit unit) {
+        if (maxPendingWrites <= 0) {
+            throw new IllegalArgumentException("maxPendingWrites: " + maxPendingWrites + " (expected: > 0)");
+        }
+        if (maxPendingBytes <= 0) {
+            throw new IllegalArgumentException("maxPendingBytes: " + maxPendingBytes + " (expected: > 0)");
+        }
+        if (maxDelay < 0) {
+            throw new IllegalArgumentException("maxDelay: " + maxDelay + " (expected: >= 0)");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit");
+        }
+        this.maxPendingWrites = maxPendingWrites;
+        this.maxPendingBytes = maxPendingBytes;
+        maxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    public int getMaxPendingWrites() {
+        return maxPendingWrites;
+    }
+
+    public int getMaxPendingBytes() {
+        return maxPendingBytes;
+    }
+
+    public long getMaxDelayNanos() {
+        return maxDelayNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "FlushPolicy(max writes: " + maxPendingWrites
+                + ", max bytes: " + maxPendingBytes
+                + ", max delay: " + maxDelayNanos + " ns)";
+    }
+}
@@ -0,0 +1,181 @@
+package me.bennettca.nio.channel;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelException;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+import me.bennettca.nio.protocol.Packet;
+import me.bennettca.nio.protocol.codec.EncodedFrame;
+import me.bennettca.nio.protocol.packet.ByteBufPacket;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies a {@link SlowConsumerPolicy} to a channel. Must be placed
+ * between the encoder and the tail of the pipeline so packet ids of
+ * written packets can be inspected.
+ */
+public final class SlowConsumerHandler extends ChannelHandlerAdapter {
+
+    private static final ChannelException DROPPED = new ChannelException("Dropped write to slow consumer");
+
+    static {
+        DROPPED.setStackTrace(new StackTraceElement[0]);
+    }
+
+    private final SlowConsumerPolicy policy;
+    private final ArrayDeque<PendingWrite> queue;
+
+    private ScheduledFuture<?> disconnectTask;
+
+    public SlowConsumerHandler(SlowConsumerPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("policy");
+        }
+        this.policy = policy;
+        queue = policy.getAction() == SlowConsumerPolicy.Action.DROP_OLDEST ? new ArrayDeque<>() : null;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        if (!ctx.channel().isWritable()) {
+            unwritable(ctx);
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        cancelDisconnect();
+        if (queue != null) {
+            PendingWrite write;
+            while ((write = queue.poll()) != null) {
+                discard(write.msg);
+                dropped(ctx, write.promise);
+            }
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        boolean writable = ctx.channel().isWritable();
+        switch (policy.getAction()) {
+            case DROP_OLDEST:
+                if (!writable || !queue.isEmpty()) {
+                    if (queue.size() >= policy.getMaxQueued()) {
+                        PendingWrite oldest = queue.poll();
+                        discard(oldest.msg);
+                        dropped(ctx, oldest.promise);
+                        policy.droppedOldest();
+                    }
+                    queue.add(new PendingWrite(msg, promise));
+                    if (writable) {
+                        drain(ctx);
+                    }
+                    return;
+                }
+                break;
+            case DROP_NON_CRITICAL:
+                if (!writable && policy.isDroppable(packetId(msg))) {
+                    discard(msg);
+                    dropped(ctx, promise);
+                    policy.droppedNonCritical();
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            cancelDisconnect();
+            if (queue != null && !queue.isEmpty()) {
+                drain(ctx);
+                ctx.flush();
+            }
+        } else {
+            unwritable(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    /**
+     * Fail the promise of a dropped write. The void promise of broadcasts
+     * and conflated writes would report the failure to exceptionCaught for
+     * every dropped packet, so it is left alone, drops are counted by the
+     * policy.
+     */
+    private static void dropped(ChannelHandlerContext ctx, ChannelPromise promise) {
+        if (promise != ctx.channel().voidPromise()) {
+            promise.tryFailure(DROPPED);
+        }
+    }
+
+    private void unwritable(ChannelHandlerContext ctx) {
+        policy.unwritable();
+        long timeout = policy.getDisconnectNanos();
+        if (timeout > 0 && disconnectTask == null) {
+            disconnectTask = ctx.executor().schedule(() -> {
+                disconnectTask = null;
+                if (!ctx.channel().isWritable()) {
+                    policy.disconnected();
+                    ctx.close();
+                }
+            }, timeout, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void cancelDisconnect() {
+        if (disconnectTask != null) {
+            disconnectTask.cancel(false);
+            disconnectTask = null;
+        }
+    }
+
+    /**
+     * Write queued messages until the channel becomes unwritable again.
+     */
+    private void drain(ChannelHandlerContext ctx) {
+        PendingWrite write;
+        while (ctx.channel().isWritable() && (write = queue.poll()) != null) {
+            ctx.write(write.msg, write.promise);
+        }
+    }
+
+    private static short packetId(Object msg) {
+        if (msg instanceof Packet) {
+            return ((Packet) msg).getId();
+        }
+        if (msg instanceof EncodedFrame) {
+            ByteBuf frame = ((EncodedFrame) msg).content();
+            return frame.readableBytes() >= 2 ? frame.getShort(frame.readerIndex()) : 0;
+        }
+        return 0;
+    }
+
+    static void discard(Object msg) {
+        if (msg instanceof ByteBufPacket && ((ByteBufPacket) msg).buffer() != null) {
+            ((ByteBufPacket) msg).takeBuffer().release();
+        } else {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    private static final class PendingWrite {
+
+        private final Object msg;
+        private final ChannelPromise promise;
+
+        PendingWrite(Object msg, ChannelPromise promise) {
+            this.msg = msg;
+            this.promise = promise;
+        }
+    }
+}
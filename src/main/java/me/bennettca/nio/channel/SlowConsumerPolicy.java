@@ -0,0 +1,159 @@
+package me.bennettca.nio.channel;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What to do with writes to a connection which is not writable, i.e.
+ * whose outbound buffer grew beyond the high water mark because the
+ * remote host does not read fast enough. Counters are shared by every
+ * connection the policy is applied to.
+ */
+public final class SlowConsumerPolicy {
+
+    public enum Action {
+        /**
+         * Keep buffering writes. Writability events tell the application
+         * when to pause and resume sending.
+         */
+        PAUSE,
+        /**
+         * Hold writes in a bounded queue until the connection is writable
+         * again, dropping the oldest queued write once the queue is full.
+         */
+        DROP_OLDEST,
+        /**
+         * Drop writes of non-critical packet ids, buffer all others.
+         */
+        DROP_NON_CRITICAL
+    }
+
+    private final Action action;
+    private final int maxQueued;
+    private final boolean[] droppable;
+    private final long disconnectNanos;
+
+    private final LongAdder unwritableCount = new LongAdder();
+    private final LongAdder droppedOldestCount = new LongAdder();
+    private final LongAdder droppedNonCriticalCount = new LongAdder();
+    private final LongAdder disconnectedCount = new LongAdder();
+
+    private SlowConsumerPolicy(Action action, int maxQueued, boolean[] droppable, long disconnectNanos) {
+        this.action = action;
+        this.maxQueued = maxQueued;
+        this.droppable = droppable;
+        this.disconnectNanos = disconnectNanos;
+    }
+
+    public static SlowConsumerPolicy pause() {
+        return new SlowConsumerPolicy(Action.PAUSE, 0, null, 0);
+    }
+
+    /**
+     * @param maxQueued maximum number of writes held while not writable
+     * @return policy dropping the oldest writes
+     */
+    public static SlowConsumerPolicy dropOldest(int maxQueued) {
+        if (maxQueued <= 0) {
+            throw new IllegalArgumentException("maxQueued: " + maxQueued + " (expected: > 0)");
+        }
+        return new SlowConsumerPolicy(Action.DROP_OLDEST, maxQueued, null, 0);
+    }
+
+    /**
+     * @param packetIds ids of packets which may be dropped
+     * @return policy dropping writes of the given packet ids
+     */
+    public static SlowConsumerPolicy dropNonCritical(short... packetIds) {
+        if (packetIds == null) {
+            throw new NullPointerException("packetIds");
+        }
+        boolean[] droppable = new boolean[1 << 16];
+        for (short id : packetIds) {
+            droppable[id & 0xFFFF] = true;
+        }
+        return new SlowConsumerPolicy(Action.DROP_NON_CRITICAL, 0, droppable, 0);
+    }
+
+    /**
+     * Get a copy of this policy which also closes connections which
+     * stayed unwritable for too long.
+     *
+     * @param timeout longest time a connection may stay unwritable
+     * @param unit    unit of the timeout
+     * @return new policy with fresh counters
+     */
+    public SlowConsumerPolicy disconnectAfter(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout: " + timeout + " (expected: > 0)");
+        }
+        return new SlowConsumerPolicy(action, maxQueued, droppable, unit.toNanos(timeout));
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    public boolean isDroppable(short packetId) {
+        return droppable != null && droppable[packetId & 0xFFFF];
+    }
+
+    /**
+     * @return time after which an unwritable connection is closed, or 0 if never
+     */
+    public long getDisconnectNanos() {
+        return disconnectNanos;
+    }
+
+    /**
+     * @return number of times a connection became unwritable
+     */
+    public long getUnwritableCount() {
+        return unwritableCount.sum();
+    }
+
+    public long getDroppedOldestCount() {
+        return droppedOldestCount.sum();
+    }
+
+    public long getDroppedNonCriticalCount() {
+        return droppedNonCriticalCount.sum();
+    }
+
+    /**
+     * @return number of connections closed for staying unwritable
+     */
+    public long getDisconnectedCount() {
+        return disconnectedCount.sum();
+    }
+
+    void unwritable() {
+        unwritableCount.increment();
+    }
+
+    void droppedOldest() {
+        droppedOldestCount.increment();
+    }
+
+    void droppedNonCritical() {
+        droppedNonCriticalCount.increment();
+    }
+
+    void disconnected() {
+        disconnectedCount.increment();
+    }
+
+    @Override
+    public String toString() {
+        return "SlowConsumerPolicy(" + action
+                + (action == Action.DROP_OLDEST ? ", max queued: " + maxQueued : "")
+                + (disconnectNanos > 0 ? ", disconnect after: " + disconnectNanos + " ns" : "")
+                + ", unwritable: " + getUnwritableCount()
+                + ", dropped: " + (getDroppedOldestCount() + getDroppedNonCriticalCount())
+                + ", disconnected: " + getDisconnectedCount() + ')';
+    }
+}
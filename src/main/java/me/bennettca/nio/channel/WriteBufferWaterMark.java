@@ -0,0 +1,54 @@
+package me.bennettca.nio.channel;
+
+import io.netty.channel.ChannelConfig;
+
+/**
+ * Write buffer limits of a channel. A channel becomes unwritable once
+ * more than the high water mark is waiting to be sent and writable
+ * again once the pending bytes drop below the low water mark.
+ */
+public final class WriteBufferWaterMark {
+
+    private final int low;
+    private final int high;
+
+    public WriteBufferWaterMark(int low, int high) {
+        if (low < 0) {
+            throw new IllegalArgumentException("low: " + low + " (expected: >= 0)");
+        }
+        if (high < low) {
+            throw new IllegalArgumentException("high: " + high + " (expected: >= low: " + low + ')');
+        }
+        this.low = low;
+        this.high = high;
+    }
+
+    public int getLow() {
+        return low;
+    }
+
+    public int getHigh() {
+        return high;
+    }
+
+    /**
+     * Apply the water marks to a channel. The marks are set in whichever
+     * order keeps the low mark below the high one in between.
+     *
+     * @param config config of the channel
+     */
+    public void apply(ChannelConfig config) {
+        if (low > config.getWriteBufferHighWaterMark()) {
+            config.setWriteBufferHighWaterMark(high);
+            config.setWriteBufferLowWaterMark(low);
+        } else {
+            config.setWriteBufferLowWaterMark(low);
+            config.setWriteBufferHighWaterMark(high);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBufferWaterMark(low: " + low + ", high: " + high + ')';
+    }
+}
@@ -15,4 +15,24 @@ public interface ClientEventHandler extends EventHandler {
      * Connection lost from remote host.
      */
     void connectionLost();
+
+    /**
+     * Connection became writable or unwritable. A connection is
+     * unwritable while more data than the high water mark is waiting to
+     * be sent to the remote host.
+     * @param writable whether the connection is writable
+     */
+    default void writabilityChanged(boolean writable) {
+
+    }
+
+    /**
+     * Server is shutting down and will close the connection once
+     * outstanding requests completed. New requests should be sent to
+     * another server.
+     * @param drainTimeoutMillis time after which the server closes the connection
+     */
+    default void goAwayReceived(long drainTimeoutMillis) {
+
+    }
 }
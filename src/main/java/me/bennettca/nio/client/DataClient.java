@@ -9,8 +9,15 @@ import io.netty.handler.stream.ChunkedWriteHandler;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.EventExecutor;
 import me.bennettca.nio.AbstractConnection;
 import me.bennettca.nio.EventHandler;
+import me.bennettca.nio.PacketDispatcher;
+import me.bennettca.nio.channel.FlushCoalescingHandler;
+import me.bennettca.nio.channel.FlushPolicy;
+import me.bennettca.nio.channel.SlowConsumerHandler;
+import me.bennettca.nio.channel.SlowConsumerPolicy;
+import me.bennettca.nio.channel.WriteBufferWaterMark;
 import me.bennettca.nio.protocol.PacketRegistry;
 import me.bennettca.nio.protocol.codec.Decoder;
 import me.bennettca.nio.protocol.packet.RequestPacket;
@@ -18,20 +25,35 @@ import me.bennettca.nio.protocol.packet.ResponsePacket;
 import me.bennettca.nio.request.*;
 import me.bennettca.nio.protocol.Packet;
 import me.bennettca.nio.protocol.codec.Encoder;
+import me.bennettca.nio.protocol.packet.GoAwayPacket;
 import me.bennettca.nio.protocol.packet.KeepAlivePacket;
+import me.bennettca.nio.protocol.stream.ChunkedFilePacket;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
+/**
+ * Connection to a server, which can reconnect when the connection is
+ * lost. While reconnecting, packets passed to the send and write methods
+ * are queued if an {@link OfflineQueue} is set, see
+ * {@link #setOfflineQueue(OfflineQueue)}. Requests, responses and
+ * chunked files are never queued and fail while reconnecting.
+ */
 public abstract class DataClient extends AbstractConnection {
 
     private final Bootstrap bootstrap;
     private final RequestPool requestPool;
     private final PacketRegistry registry = new PacketRegistry();
     private final Set<EventHandler> handlers;
+    private volatile ClientEventHandler[] clientHandlers = new ClientEventHandler[0];
+    private final PacketDispatcher<DataClient> dispatcher = new PacketDispatcher<>(registry);
 
     private EventLoopGroup group;
     private ClientFutureListener future;
@@ -40,17 +62,34 @@ public abstract class DataClient extends AbstractConnection {
     private long reconnectDelay;
     private boolean reconnectFlag;
     private ReconnectHandler reconnectHandler;
+    private volatile FlushPolicy flushPolicy;
+    private volatile WriteBufferWaterMark writeBufferWaterMark;
+    private volatile SlowConsumerPolicy slowConsumerPolicy;
+    private volatile boolean goingAway;
+    private final boolean ownsGroup;
+    private volatile boolean closed;
+    private volatile ReconnectBackoff reconnectBackoff;
+    private volatile int reconnectAttempts;
+    private volatile OfflineQueue offlineQueue;
+    private volatile Channel lastChannel;
+    private final LongAdder replayedCount = new LongAdder();
 
     DataClient(Class<? extends SocketChannel> channelClass,
             EventLoopGroup group, ClientFutureListener future) {
+        this(channelClass, group, future, true);
+    }
+
+    DataClient(Class<? extends SocketChannel> channelClass,
+            EventLoopGroup group, ClientFutureListener future, boolean ownsGroup) {
         this.group = group;
         this.future = future;
+        this.ownsGroup = ownsGroup;
 
         handlers = new LinkedHashSet<>(1);
         requestPool = new RequestPool() {
             @Override
-            protected void schedule(Runnable task) {
-                DataClient.this.group.schedule(task, 10, TimeUnit.SECONDS);
+            protected void schedule(Runnable task, long delay, TimeUnit unit) {
+                DataClient.this.group.schedule(task, delay, unit);
             }
         };
 
@@ -67,44 +106,206 @@ public abstract class DataClient extends AbstractConnection {
                         ch.pipeline().addLast(
                                 new IdleStateHandler(30, 15, 0),
                                 new ChunkedWriteHandler(),
-                                new Decoder(registry),
-                                Encoder.INSTANCE,
-                                new Handler());
+                                new Decoder(registry, requestPool.isRecycling()));
+                        FlushPolicy policy = flushPolicy;
+                        if (policy != null) {
+                            ch.pipeline().addLast(new FlushCoalescingHandler(policy));
+                        }
+                        ch.pipeline().addLast(Encoder.INSTANCE);
+                        WriteBufferWaterMark waterMark = writeBufferWaterMark;
+                        if (waterMark != null) {
+                            waterMark.apply(ch.config());
+                        }
+                        SlowConsumerPolicy slowConsumer = slowConsumerPolicy;
+                        if (slowConsumer != null) {
+                            ch.pipeline().addLast(new SlowConsumerHandler(slowConsumer));
+                        }
+                        ch.pipeline().addLast(new Handler());
                     }
                 });
     }
 
+    /**
+     * Send a packet. While the client is reconnecting and an offline
+     * queue is set, the packet is queued and sent once reconnected.
+     *
+     * @param packet packet to send
+     * @return future completed once the packet was written
+     */
+    @Override
+    public ChannelFuture send(Packet packet) {
+        ChannelFuture queued = offer(packet, null);
+        return queued != null ? queued : super.send(packet);
+    }
+
+    @Override
+    public ChannelFuture send(Packet packet, ChannelPromise promise) {
+        ChannelFuture queued = offer(packet, promise);
+        return queued != null ? queued : super.send(packet, promise);
+    }
+
+    @Override
+    public ChannelFuture sendImmediate(Packet packet) {
+        ChannelFuture queued = offer(packet, null);
+        return queued != null ? queued : super.sendImmediate(packet);
+    }
+
     @Override
-    public ChannelFuture request(Packet packet,
-            ResponseHandler handler, boolean timed) {
+    public void send(Iterable<Packet> packets) {
+        if (packets == null) {
+            throw new NullPointerException("packets");
+        }
+        if (offlineQueue != null && lastChannel != null && !isActive() && willReconnect()) {
+            for (Packet packet : packets) {
+                send(packet);
+            }
+            return;
+        }
+        super.send(packets);
+    }
+
+    /**
+     * Write a packet. While the client is reconnecting and an offline
+     * queue is set, the packet is queued and flushed once reconnected.
+     *
+     * @param packet packet to write
+     * @return future completed once the packet was written
+     */
+    @Override
+    public ChannelFuture write(Packet packet) {
+        ChannelFuture queued = offer(packet, null);
+        return queued != null ? queued : super.write(packet);
+    }
+
+    @Override
+    public ChannelFuture write(Packet packet, ChannelPromise promise) {
+        ChannelFuture queued = offer(packet, promise);
+        return queued != null ? queued : super.write(packet, promise);
+    }
+
+    /**
+     * Queue a packet in the offline queue if the client is reconnecting.
+     *
+     * @param promise promise of the packet, or null to create one
+     * @return future of the queued packet, or null if the client is not
+     * reconnecting and the packet must be written to the channel
+     */
+    private ChannelFuture offer(Packet packet, ChannelPromise promise) {
+        OfflineQueue queue = offlineQueue;
+        Channel last = lastChannel;
+        if (queue == null || last == null || isActive() || !willReconnect()
+                || packet instanceof ChunkedFilePacket || packet instanceof ResponsePacket) {
+            return null;
+        }
         getPacketRegistry().validate(packet);
-        if (handler == null) {
-            throw new NullPointerException("handler");
+        if (promise == null) {
+            promise = last.newPromise();
         }
-        Request request = timed ? new TimedRequest(handler) : new DefaultRequest(handler);
-        return send(new RequestPacket(requestPool.track(request, channel.eventLoop()), packet));
+        queue.offer(Encoder.INSTANCE.encodeFrame(PooledByteBufAllocator.DEFAULT, packet), promise);
+        Channel channel = this.channel;
+        if (channel != null && channel.isActive()) {
+            // Reconnected while the packet was queued.
+            queue.drainTo(channel);
+            channel.flush();
+        }
+        return promise;
     }
 
+    /**
+     * Close the client and stop reconnecting. While reconnecting, the
+     * returned future is already complete.
+     *
+     * @return future completed once the channel is closed
+     * @throws NullPointerException if the client never connected
+     */
     @Override
     public ChannelFuture close() {
-        ChannelFuture close = super.close();
-        group.shutdownGracefully();
-        return close;
+        Channel channel = stop();
+        try {
+            if (channel != null) {
+                return channel.close();
+            }
+            Channel last = lastChannel;
+            if (last == null) {
+                throw new NullPointerException("channel");
+            }
+            return last.newSucceededFuture();
+        } finally {
+            if (ownsGroup) {
+                group.shutdownGracefully();
+            }
+        }
     }
 
     @Override
     public ChannelFuture close(ChannelPromise promise) {
-        ChannelFuture close = super.close(promise);
-        group.shutdownGracefully();
-        return close;
+        Channel channel = stop();
+        try {
+            if (channel != null) {
+                return channel.close(promise);
+            }
+            promise.setSuccess();
+            return promise;
+        } finally {
+            if (ownsGroup) {
+                group.shutdownGracefully();
+            }
+        }
+    }
+
+    /**
+     * Stop reconnecting and close the channel if it is open, without
+     * shutting down the event loop group.
+     */
+    void shutdown() {
+        Channel channel = stop();
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Stop reconnecting and fail the packets waiting for a connection.
+     * Without a channel no close clears the request pool, so requests
+     * kept to be resent after reconnecting are failed here, before the
+     * event loops running their timeouts may be shut down.
+     *
+     * @return channel to close, or null while reconnecting
+     */
+    private Channel stop() {
+        closed = true;
+        failOfflineQueue("Client closed");
+        Channel channel = this.channel;
+        if (channel == null) {
+            requestPool.clear();
+        }
+        return channel;
     }
 
     private final ChannelFutureListener listener = new ChannelFutureListener() {
         @Override
         public void operationComplete(ChannelFuture f) throws Exception {
             if (f.isSuccess()) {
-                channel = f.channel();
+                Channel connected = f.channel();
+                reconnectAttempts = 0;
+                // Resend before the channel is published, so nothing
+                // sent after reconnecting overtakes the older packets.
+                List<RequestPacket> replay = requestPool.idempotentRequests();
+                for (RequestPacket request : replay) {
+                    connected.write(request);
+                }
+                replayedCount.add(replay.size());
+                OfflineQueue queue = offlineQueue;
+                if (queue != null) {
+                    queue.drainTo(connected);
+                }
+                channel = connected;
+                if (queue != null) {
+                    queue.drainTo(connected);
+                }
+                connected.flush();
                 addr = (InetSocketAddress) channel.remoteAddress();
+                goingAway = false;
                 if (future != null) {
                     future.clientConnected();
                 }
@@ -140,24 +341,133 @@ public abstract class DataClient extends AbstractConnection {
         if (handler == null) {
             throw new NullPointerException("handler");
         }
-        return handlers.add(handler);
+        synchronized (handlers) {
+            if (!handlers.add(handler)) {
+                return false;
+            }
+            updateClientHandlers();
+            return true;
+        }
     }
 
     public boolean removeHandler(EventHandler handler) {
         if (handler == null) {
             throw new NullPointerException("handler");
         }
-        return handlers.remove(handler);
+        synchronized (handlers) {
+            if (!handlers.remove(handler)) {
+                return false;
+            }
+            updateClientHandlers();
+            return true;
+        }
+    }
+
+    /**
+     * Handle received packets of a type. Typed handlers are looked up by
+     * packet id and run before the event handlers.
+     *
+     * @param type    packet class, which must be registered
+     * @param handler handler called with every packet of the type
+     * @param <P>     type of the packet
+     */
+    public <P extends Packet> void on(Class<P> type, BiConsumer<? super DataClient, ? super P> handler) {
+        dispatcher.on(type, handler);
+    }
+
+    /**
+     * Remove all typed handlers of a packet type.
+     *
+     * @param type packet class
+     * @return true if any handler was removed
+     */
+    public boolean off(Class<? extends Packet> type) {
+        return dispatcher.off(type);
     }
 
     public PacketRegistry getPacketRegistry() {
         return registry;
     }
 
+    @Override
+    protected RequestPool getRequestPool() {
+        return requestPool;
+    }
+
+    public long getRequestTimeoutMillis() {
+        return requestPool.getDefaultTimeoutMillis();
+    }
+
+    /**
+     * Set the timeout of requests which do not specify one.
+     *
+     * @param timeout time to wait for a response
+     * @param unit    unit of the timeout
+     */
+    public void setRequestTimeout(long timeout, TimeUnit unit) {
+        requestPool.setDefaultTimeout(timeout, unit);
+    }
+
+    /**
+     * @return round trip times of requests sent by this client
+     */
+    public LatencyStats getLatencyStats() {
+        return requestPool.getLatencyStats();
+    }
+
+    public InFlightWindow getInFlightWindow() {
+        return requestPool.getWindow();
+    }
+
+    /**
+     * Limit the number of requests which may await a response at once.
+     *
+     * @param window window to use, or null for no limit
+     */
+    public void setInFlightWindow(InFlightWindow window) {
+        requestPool.setWindow(window);
+    }
+
+    public boolean isRecycling() {
+        return requestPool.isRecycling();
+    }
+
+    /**
+     * Reuse request and response envelopes for every round trip instead
+     * of allocating new ones. Takes effect on the next connect or reconnect.
+     * Responses must not be referenced after the response handler returns.
+     *
+     * @param recycling whether to pool request and response objects
+     */
+    public void setRecycling(boolean recycling) {
+        requestPool.setRecycling(recycling);
+    }
+
     public EventLoopGroup getExecutor() {
         return group;
     }
 
+    /**
+     * Clients may share their event loop group, and any of its threads
+     * may have to complete responses, so none of them may block.
+     */
+    @Override
+    protected boolean canBlock() {
+        for (EventExecutor loop : group.children()) {
+            if (loop.inEventLoop()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the server announced it is closing this connection
+     */
+    public boolean isGoingAway() {
+        return goingAway;
+    }
+
     public long getReconnectDelay() {
         return reconnectDelay;
     }
@@ -170,23 +480,134 @@ public abstract class DataClient extends AbstractConnection {
         this.reconnectHandler = reconnectHandler;
     }
 
+    public ReconnectBackoff getReconnectBackoff() {
+        return reconnectBackoff;
+    }
+
+    /**
+     * Back off exponentially between reconnect attempts instead of
+     * waiting the fixed reconnect delay.
+     *
+     * @param reconnectBackoff backoff to use, or null for the fixed delay
+     */
+    public void setReconnectBackoff(ReconnectBackoff reconnectBackoff) {
+        this.reconnectBackoff = reconnectBackoff;
+    }
+
+    public OfflineQueue getOfflineQueue() {
+        return offlineQueue;
+    }
+
+    /**
+     * Queue packets sent while reconnecting instead of failing the send.
+     * Packets still queued in a replaced queue are dropped.
+     * <p>
+     * Packets passed to the send and write methods are queued, except for
+     * {@link ChunkedFilePacket}s. Requests and responses are not queued
+     * and fail while reconnecting, {@link me.bennettca.nio.protocol.Idempotent}
+     * requests in flight when the connection was lost are resent instead.
+     *
+     * @param offlineQueue queue to use, or null to fail sends while disconnected
+     */
+    public void setOfflineQueue(OfflineQueue offlineQueue) {
+        OfflineQueue previous = this.offlineQueue;
+        this.offlineQueue = offlineQueue;
+        if (previous != null && previous != offlineQueue) {
+            previous.fail(new ChannelException("Offline queue replaced"));
+        }
+    }
+
+    /**
+     * @return number of idempotent requests resent after reconnecting
+     */
+    public long getReplayedCount() {
+        return replayedCount.sum();
+    }
+
+    public WriteBufferWaterMark getWriteBufferWaterMark() {
+        return writeBufferWaterMark;
+    }
+
+    /**
+     * Set the write buffer water marks. Takes effect on the next connect
+     * or reconnect.
+     *
+     * @param writeBufferWaterMark water marks to use, or null for netty's defaults
+     */
+    public void setWriteBufferWaterMark(WriteBufferWaterMark writeBufferWaterMark) {
+        this.writeBufferWaterMark = writeBufferWaterMark;
+    }
+
+    public SlowConsumerPolicy getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    /**
+     * Handle a remote host which does not read fast enough. Takes effect
+     * on the next connect or reconnect.
+     *
+     * @param slowConsumerPolicy policy to use, or null to buffer writes without limit
+     */
+    public void setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    /**
+     * Coalesce flushes on the connection. Takes effect on the
+     * next connect or reconnect.
+     *
+     * @param flushPolicy policy to use, or null to flush immediately
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+    }
+
     private void attemptReconnect(final InetSocketAddress addr) {
-        if (reconnectDelay > 0) {
-            group.schedule((Runnable) () -> {
-                if (!isActive()) {
-                    reconnectFlag = true;
-                    connect(addr);
-                }
-            }, reconnectDelay, TimeUnit.MILLISECONDS);
+        if (!willReconnect()) {
+            failOfflineQueue("Not reconnecting");
+            return;
+        }
+        ReconnectBackoff backoff = reconnectBackoff;
+        long delay = backoff != null ? backoff.delayNanos(reconnectAttempts++)
+                : TimeUnit.MILLISECONDS.toNanos(reconnectDelay);
+        group.schedule((Runnable) () -> {
+            if (!isActive() && !closed) {
+                reconnectFlag = true;
+                connect(addr);
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private boolean willReconnect() {
+        return !closed && (reconnectBackoff != null || reconnectDelay > 0);
+    }
+
+    private void failOfflineQueue(String reason) {
+        OfflineQueue queue = offlineQueue;
+        if (queue != null) {
+            queue.fail(new ChannelException(reason));
         }
     }
 
+    private void updateClientHandlers() {
+        List<ClientEventHandler> list = new ArrayList<>(handlers.size());
+        for (EventHandler handler : handlers) {
+            if (handler instanceof ClientEventHandler) {
+                list.add((ClientEventHandler) handler);
+            }
+        }
+        clientHandlers = list.toArray(new ClientEventHandler[list.size()]);
+    }
+
     private void firePacketReceived(Packet packet) {
         if (packet.getId() != KeepAlivePacket.PACKET_ID) {
-            for (EventHandler handler : handlers) {
-                if (handler instanceof ClientEventHandler) {
-                    ((ClientEventHandler) handler).packetReceived(packet);
-                }
+            dispatcher.dispatch(this, packet);
+            for (ClientEventHandler handler : clientHandlers) {
+                handler.packetReceived(packet);
             }
         }
     }
@@ -203,13 +624,24 @@ public abstract class DataClient extends AbstractConnection {
             }
         }
 
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            boolean writable = ctx.channel().isWritable();
+            for (ClientEventHandler handler : clientHandlers) {
+                handler.writabilityChanged(writable);
+            }
+        }
+
         @Override
         public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-            requestPool.clear();
-            for (EventHandler handler : handlers) {
-                if (handler instanceof ClientEventHandler) {
-                    ((ClientEventHandler) handler).connectionLost();
-                }
+            lastChannel = ctx.channel();
+            if (willReconnect()) {
+                requestPool.clearNonIdempotent();
+            } else {
+                requestPool.clear();
+            }
+            for (ClientEventHandler handler : clientHandlers) {
+                handler.connectionLost();
             }
 
             channel = null;
@@ -227,17 +659,12 @@ public abstract class DataClient extends AbstractConnection {
             Packet packet = (Packet) msg;
             if (packet instanceof ResponsePacket) {
                 ResponsePacket resp = (ResponsePacket) packet;
-                Request request = requestPool.take(resp.getUniqueId());
-                if (request != null) {
-                    if (request instanceof TimedRequest) {
-                        TimedRequest timed = (TimedRequest) request;
-                        long time = System.currentTimeMillis() - timed.getStartTime();
-                        request.getHandler().responseReceived(new TimedResponse(resp.getPacket(), time));
-                    } else {
-                        request.getHandler().responseReceived(new DefaultResponse(resp.getPacket()));
+                try {
+                    if (!requestPool.complete(resp)) {
+                        ctx.fireExceptionCaught(new NullPointerException("Invalid response: " + resp.getUniqueId()));
                     }
-                } else {
-                    ctx.fireExceptionCaught(new NullPointerException("Invalid response: " + resp.getUniqueId()));
+                } finally {
+                    resp.recycle();
                 }
             } else if (packet instanceof RequestPacket) {
                 RequestPacket request = (RequestPacket) packet;
@@ -246,6 +673,12 @@ public abstract class DataClient extends AbstractConnection {
                 } else {
                     firePacketReceived(packet);
                 }
+            } else if (packet instanceof GoAwayPacket) {
+                goingAway = true;
+                long drainTimeout = ((GoAwayPacket) packet).getDrainTimeoutMillis();
+                for (ClientEventHandler handler : clientHandlers) {
+                    handler.goAwayReceived(drainTimeout);
+                }
             } else {
                 firePacketReceived(packet);
             }
@@ -0,0 +1,311 @@
+package me.bennettca.nio.client;
+
+import io.netty.channel.ChannelException;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import me.bennettca.nio.EventHandler;
+import me.bennettca.nio.protocol.Packet;
+import me.bennettca.nio.request.Response;
+import me.bennettca.nio.request.ResponseHandler;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Several connections to the same server sharing one event loop group.
+ * Packets and requests are routed to one of the connections, so large
+ * frames on one connection do not hold up requests on the others and
+ * io is spread over multiple event loops.
+ * <p>
+ * Connections which are lost are reconnected in the background and
+ * skipped until they are active again. Connections of a server which
+ * sent a go away are only used if no other connection is available.
+ */
+public final class DataClientPool {
+
+    public static final long DEFAULT_RECONNECT_DELAY_MILLIS = 1000;
+
+    public enum Balancing {
+
+        /**
+         * Route to the connection with the fewest requests awaiting a response.
+         */
+        LEAST_IN_FLIGHT,
+
+        /**
+         * Route to each connection in turn.
+         */
+        ROUND_ROBIN
+    }
+
+    private final DataClient[] clients;
+    private final List<DataClient> clientsView;
+    private final Balancing balancing;
+    private final NioEventLoopGroup group;
+    private final boolean ownsGroup;
+    private final AtomicInteger next = new AtomicInteger();
+    private final LongAdder reconnectCount = new LongAdder();
+
+    public DataClientPool(int connections) {
+        this(connections, Balancing.LEAST_IN_FLIGHT);
+    }
+
+    public DataClientPool(int connections, Balancing balancing) {
+        this(connections, balancing, new NioEventLoopGroup(connections,
+                new DefaultThreadFactory("clientPoolEventLoopGroup")), true);
+    }
+
+    /**
+     * Construct a pool using an existing event loop group, which is not
+     * shut down when the pool is closed.
+     *
+     * @param connections number of connections
+     * @param balancing   how packets are routed to connections
+     * @param group       event loop group of the connections
+     */
+    public DataClientPool(int connections, Balancing balancing, NioEventLoopGroup group) {
+        this(connections, balancing, group, false);
+    }
+
+    private DataClientPool(int connections, Balancing balancing, NioEventLoopGroup group, boolean ownsGroup) {
+        if (connections <= 0) {
+            throw new IllegalArgumentException("connections: " + connections + " (expected: > 0)");
+        }
+        if (balancing == null) {
+            throw new NullPointerException("balancing");
+        }
+        if (group == null) {
+            throw new NullPointerException("group");
+        }
+        this.balancing = balancing;
+        this.group = group;
+        this.ownsGroup = ownsGroup;
+
+        clients = new DataClient[connections];
+        for (int i = 0; i < connections; i++) {
+            DataClient client = new NioDataClient(group, null, false);
+            client.setReconnectDelayMillis(DEFAULT_RECONNECT_DELAY_MILLIS);
+            client.setReconnectHandler(reconnectCount::increment);
+            clients[i] = client;
+        }
+        clientsView = Collections.unmodifiableList(Arrays.asList(clients));
+    }
+
+    public Future<Void> connect(String host, int port) {
+        return connect(new InetSocketAddress(host, port));
+    }
+
+    public Future<Void> connect(InetAddress addr, int port) {
+        return connect(new InetSocketAddress(addr, port));
+    }
+
+    /**
+     * Connect every connection of the pool. Connections which fail to
+     * connect keep retrying in the background.
+     *
+     * @param addr address of the server
+     * @return future completed once all connections are established, or
+     * failed with the cause of the first connection which failed
+     */
+    public Future<Void> connect(InetSocketAddress addr) {
+        if (addr == null) {
+            throw new NullPointerException("addr");
+        }
+        Promise<Void> promise = group.next().newPromise();
+        AtomicInteger remaining = new AtomicInteger(clients.length);
+        for (DataClient client : clients) {
+            client.connect(addr).addListener(f -> {
+                if (!f.isSuccess()) {
+                    promise.tryFailure(f.cause());
+                } else if (remaining.decrementAndGet() == 0) {
+                    promise.trySuccess(null);
+                }
+            });
+        }
+        return promise;
+    }
+
+    /**
+     * Close every connection and stop reconnecting.
+     */
+    public void close() {
+        for (DataClient client : clients) {
+            client.shutdown();
+        }
+        if (ownsGroup) {
+            group.shutdownGracefully();
+        }
+    }
+
+    /**
+     * Choose the connection the next packet is routed to.
+     *
+     * @return active connection
+     * @throws ChannelException if no connection is active
+     */
+    public DataClient next() {
+        DataClient chosen = null;
+        boolean chosenGoingAway = true;
+        int chosenInFlight = Integer.MAX_VALUE;
+        int start = Math.floorMod(next.getAndIncrement(), clients.length);
+        for (int i = 0; i < clients.length; i++) {
+            DataClient client = clients[(start + i) % clients.length];
+            if (!client.isActive()) {
+                continue;
+            }
+            boolean goingAway = client.isGoingAway();
+            if (balancing == Balancing.ROUND_ROBIN) {
+                if (!goingAway) {
+                    return client;
+                }
+                if (chosen == null) {
+                    chosen = client;
+                }
+                continue;
+            }
+            int inFlight = client.getRequestPool().size();
+            if (chosenGoingAway && !goingAway
+                    || chosenGoingAway == goingAway && inFlight < chosenInFlight) {
+                chosen = client;
+                chosenGoingAway = goingAway;
+                chosenInFlight = inFlight;
+            }
+        }
+        if (chosen == null) {
+            throw new ChannelException("No active connection");
+        }
+        return chosen;
+    }
+
+    public ChannelFuture send(Packet packet) {
+        return next().send(packet);
+    }
+
+    public ChannelFuture request(Packet packet, ResponseHandler handler) {
+        return next().request(packet, handler);
+    }
+
+    public ChannelFuture request(Packet packet, ResponseHandler handler,
+            boolean timed, long timeout, TimeUnit unit) {
+        return next().request(packet, handler, timed, timeout, unit);
+    }
+
+    public CompletionStage<Response> requestAsync(Packet packet, Duration timeout) {
+        return next().requestAsync(packet, timeout);
+    }
+
+    /**
+     * Register a packet class on every connection.
+     *
+     * @param id    packet id
+     * @param clazz packet class
+     */
+    public void register(short id, Class<? extends Packet> clazz) {
+        for (DataClient client : clients) {
+            client.getPacketRegistry().register(id, clazz);
+        }
+    }
+
+    /**
+     * Register a packet factory on every connection.
+     *
+     * @param id      packet id
+     * @param factory factory creating empty packets to be read by the decoder
+     */
+    public void register(short id, Supplier<? extends Packet> factory) {
+        for (DataClient client : clients) {
+            client.getPacketRegistry().register(id, factory);
+        }
+    }
+
+    public void addHandler(EventHandler handler) {
+        for (DataClient client : clients) {
+            client.addHandler(handler);
+        }
+    }
+
+    public void removeHandler(EventHandler handler) {
+        for (DataClient client : clients) {
+            client.removeHandler(handler);
+        }
+    }
+
+    public <P extends Packet> void on(Class<P> type, BiConsumer<? super DataClient, ? super P> handler) {
+        for (DataClient client : clients) {
+            client.on(type, handler);
+        }
+    }
+
+    public void off(Class<? extends Packet> type) {
+        for (DataClient client : clients) {
+            client.off(type);
+        }
+    }
+
+    /**
+     * Set the delay before a lost connection is reconnected.
+     *
+     * @param reconnectDelay delay in milliseconds, or 0 to not reconnect
+     */
+    public void setReconnectDelayMillis(long reconnectDelay) {
+        for (DataClient client : clients) {
+            client.setReconnectDelayMillis(reconnectDelay);
+        }
+    }
+
+    public List<DataClient> getClients() {
+        return clientsView;
+    }
+
+    public Balancing getBalancing() {
+        return balancing;
+    }
+
+    public NioEventLoopGroup getGroup() {
+        return group;
+    }
+
+    /**
+     * @return number of connections which are active
+     */
+    public int getActiveCount() {
+        int active = 0;
+        for (DataClient client : clients) {
+            if (client.isActive()) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    /**
+     * @return number of requests awaiting a response across all connections
+     */
+    public int getInFlight() {
+        int inFlight = 0;
+        for (DataClient client : clients) {
+            inFlight += client.getRequestPool().size();
+        }
+        return inFlight;
+    }
+
+    /**
+     * @return number of times a lost connection was reconnected
+     */
+    public long getReconnectCount() {
+        return reconnectCount.sum();
+    }
+}
@@ -14,4 +14,8 @@ public class NioDataClient extends DataClient {
     public NioDataClient(NioEventLoopGroup group, ClientFutureListener future) {
         super(NioSocketChannel.class, group, future);
     }
+
+    NioDataClient(NioEventLoopGroup group, ClientFutureListener future, boolean ownsGroup) {
+        super(NioSocketChannel.class, group, future, ownsGroup);
+    }
 }
@@ -0,0 +1,149 @@
+package me.bennettca.nio.client;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelException;
+import io.netty.channel.ChannelPromise;
+import me.bennettca.nio.protocol.codec.EncodedFrame;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded queue of packets sent while a client is reconnecting. Packets
+ * are encoded when they are queued, so the queue is limited by the exact
+ * number of bytes which will be written. Once the client reconnected,
+ * the queued packets are written in order and flushed at once. Packets
+ * which do not fit are dropped and their futures failed.
+ * <p>
+ * A queue belongs to one client and must not be shared.
+ */
+public final class OfflineQueue {
+
+    private final int maxPackets;
+    private final long maxBytes;
+
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+    private long bytes;
+
+    private final LongAdder queuedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+
+    /**
+     * Construct an offline queue.
+     *
+     * @param maxPackets maximum number of queued packets
+     * @param maxBytes   maximum number of queued bytes
+     */
+    public OfflineQueue(int maxPackets, long maxBytes) {
+        if (maxPackets <= 0) {
+            throw new IllegalArgumentException("maxPackets: " + maxPackets + " (expected: > 0)");
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes: " + maxBytes + " (expected: > 0)");
+        }
+        this.maxPackets = maxPackets;
+        this.maxBytes = maxBytes;
+    }
+
+    public int getMaxPackets() {
+        return maxPackets;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return number of packets waiting for the client to reconnect
+     */
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    /**
+     * @return number of bytes waiting for the client to reconnect
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getQueuedCount() {
+        return queuedCount.sum();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * Queue an encoded packet, or drop it if the queue is full.
+     */
+    void offer(EncodedFrame frame, ChannelPromise promise) {
+        int length = frame.content().readableBytes();
+        synchronized (this) {
+            if (queue.size() < maxPackets && bytes + length <= maxBytes) {
+                queue.add(new Pending(frame, promise));
+                bytes += length;
+                queuedCount.increment();
+                return;
+            }
+        }
+        frame.release();
+        droppedCount.increment();
+        promise.tryFailure(new ChannelException("Offline queue full"));
+    }
+
+    /**
+     * Write all queued packets to a channel, without flushing.
+     */
+    synchronized void drainTo(Channel channel) {
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            ChannelPromise promise = pending.promise;
+            channel.write(pending.frame).addListener(f -> {
+                if (f.isSuccess()) {
+                    promise.trySuccess();
+                } else {
+                    promise.tryFailure(f.cause());
+                }
+            });
+        }
+        bytes = 0;
+    }
+
+    /**
+     * Drop all queued packets, failing their futures.
+     */
+    void fail(Throwable cause) {
+        ArrayDeque<Pending> failed;
+        synchronized (this) {
+            failed = new ArrayDeque<>(queue);
+            queue.clear();
+            bytes = 0;
+        }
+        for (Pending pending : failed) {
+            pending.frame.release();
+            droppedCount.increment();
+            pending.promise.tryFailure(cause);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "OfflineQueue(size: " + size() + '/' + maxPackets
+                + ", bytes: " + getBytes() + '/' + maxBytes
+                + ", queued: " + getQueuedCount()
+                + ", dropped: " + getDroppedCount() + ')';
+    }
+
+    private static final class Pending {
+
+        private final EncodedFrame frame;
+        private final ChannelPromise promise;
+
+        Pending(EncodedFrame frame, ChannelPromise promise) {
+            this.frame = frame;
+            this.promise = promise;
+        }
+    }
+}
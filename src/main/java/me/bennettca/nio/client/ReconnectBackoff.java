@@ -0,0 +1,93 @@
+package me.bennettca.nio.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exponential backoff between reconnect attempts. The delay grows by a
+ * multiplier with every failed attempt up to a cap, and a random part of
+ * it is subtracted so clients which lost their connection at the same
+ * time do not reconnect in lockstep.
+ */
+public final class ReconnectBackoff {
+
+    private final long initialDelayNanos;
+    private final long maxDelayNanos;
+    private final double multiplier;
+    private final double jitter;
+
+    /**
+     * Construct a backoff which doubles the delay and jitters half of it.
+     *
+     * @param initialDelay delay before the first attempt
+     * @param maxDelay     maximum delay between attempts
+     * @param unit         unit of the delays
+     */
+    public ReconnectBackoff(long initialDelay, long maxDelay, TimeUnit unit) {
+        this(initialDelay, maxDelay, unit, 2, 0.5);
+    }
+
+    /**
+     * Construct a backoff.
+     *
+     * @param initialDelay delay before the first attempt
+     * @param maxDelay     maximum delay between attempts
+     * @param unit         unit of the delays
+     * @param multiplier   factor the delay grows by after every failed attempt
+     * @param jitter       fraction of the delay which is randomized, between 0 and 1
+     */
+    public ReconnectBackoff(long initialDelay, long maxDelay, TimeUnit unit, double multiplier, double jitter) {
+        if (initialDelay <= 0) {
+            throw new IllegalArgumentException("initialDelay: " + initialDelay + " (expected: > 0)");
+        }
+        if (maxDelay < initialDelay) {
+            throw new IllegalArgumentException("maxDelay: " + maxDelay + " (expected: >= " + initialDelay + ')');
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit");
+        }
+        if (multiplier < 1) {
+            throw new IllegalArgumentException("multiplier: " + multiplier + " (expected: >= 1)");
+        }
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("jitter: " + jitter + " (expected: 0-1)");
+        }
+        initialDelayNanos = unit.toNanos(initialDelay);
+        maxDelayNanos = unit.toNanos(maxDelay);
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+    }
+
+    /**
+     * Get the delay before a reconnect attempt.
+     *
+     * @param attempt number of failed attempts since the connection was lost
+     * @return delay in nanoseconds
+     */
+    public long delayNanos(int attempt) {
+        double delay = Math.min(maxDelayNanos, initialDelayNanos * Math.pow(multiplier, attempt));
+        return (long) (delay * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+
+    public long getInitialDelayMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(initialDelayNanos);
+    }
+
+    public long getMaxDelayMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxDelayNanos);
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    @Override
+    public String toString() {
+        return "ReconnectBackoff(initial: " + getInitialDelayMillis() + "ms, max: " + getMaxDelayMillis()
+                + "ms, multiplier: " + multiplier + ", jitter: " + jitter + ')';
+    }
+}
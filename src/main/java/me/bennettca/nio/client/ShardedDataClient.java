@@ -0,0 +1,390 @@
+package me.bennettca.nio.client;
+
+import io.netty.channel.ChannelException;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import me.bennettca.nio.EventHandler;
+import me.bennettca.nio.protocol.Packet;
+import me.bennettca.nio.request.Response;
+import me.bennettca.nio.request.ResponseHandler;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Client of several servers which routes packets by key. Keys are mapped
+ * to servers by a consistent hash ring with virtual nodes, so the same key
+ * always reaches the same server, and adding or removing a server only
+ * moves the keys of that server.
+ * <p>
+ * A server is skipped while its connection is down, after it sent a go
+ * away or while it is marked unhealthy, and its keys go to the next
+ * server on the ring until it is healthy again. Keys should have a
+ * {@link Object#hashCode()} which is stable across processes, such as
+ * strings or numbers, so every client routes them the same way.
+ */
+public final class ShardedDataClient {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final int virtualNodes;
+    private final NioEventLoopGroup group;
+    private final boolean ownsGroup;
+
+    private final Map<InetSocketAddress, Endpoint> endpoints = new LinkedHashMap<>();
+    private volatile Ring ring = new Ring(new long[0], new Endpoint[0]);
+
+    private final Set<EventHandler> handlers = new LinkedHashSet<>();
+    private final Map<Short, Consumer<DataClient>> registrations = new LinkedHashMap<>();
+    private final Map<Class<? extends Packet>, List<Consumer<DataClient>>> typedHandlers = new LinkedHashMap<>();
+    private long reconnectDelay = DataClientPool.DEFAULT_RECONNECT_DELAY_MILLIS;
+
+    public ShardedDataClient() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ShardedDataClient(int virtualNodes) {
+        this(virtualNodes, new NioEventLoopGroup(0,
+                new DefaultThreadFactory("shardedClientEventLoopGroup")), true);
+    }
+
+    /**
+     * Construct a client using an existing event loop group, which is
+     * not shut down when the client is closed.
+     *
+     * @param virtualNodes number of points each server has on the ring
+     * @param group        event loop group of the connections
+     */
+    public ShardedDataClient(int virtualNodes, NioEventLoopGroup group) {
+        this(virtualNodes, group, false);
+    }
+
+    private ShardedDataClient(int virtualNodes, NioEventLoopGroup group, boolean ownsGroup) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("virtualNodes: " + virtualNodes + " (expected: > 0)");
+        }
+        if (group == null) {
+            throw new NullPointerException("group");
+        }
+        this.virtualNodes = virtualNodes;
+        this.group = group;
+        this.ownsGroup = ownsGroup;
+    }
+
+    public Future<Void> addEndpoint(String host, int port) {
+        return addEndpoint(new InetSocketAddress(host, port));
+    }
+
+    /**
+     * Add a server to the ring and connect to it. Handlers and packets
+     * registered on this client are applied to the new connection.
+     *
+     * @param addr address of the server
+     * @return future completed once the server can be routed to, or
+     * failed if the first connection attempt failed
+     * @throws IllegalArgumentException if the server was already added
+     */
+    public synchronized Future<Void> addEndpoint(InetSocketAddress addr) {
+        if (addr == null) {
+            throw new NullPointerException("addr");
+        }
+        if (endpoints.containsKey(addr)) {
+            throw new IllegalArgumentException("Endpoint already added: " + addr);
+        }
+        DataClient client = new NioDataClient(group, null, false);
+        client.setReconnectDelayMillis(reconnectDelay);
+        for (EventHandler handler : handlers) {
+            client.addHandler(handler);
+        }
+        for (Consumer<DataClient> registration : registrations.values()) {
+            registration.accept(client);
+        }
+        for (List<Consumer<DataClient>> typed : typedHandlers.values()) {
+            for (Consumer<DataClient> handler : typed) {
+                handler.accept(client);
+            }
+        }
+        endpoints.put(addr, new Endpoint(addr, client));
+        rebuildRing();
+        Promise<Void> promise = group.next().newPromise();
+        client.connect(addr).addListener(f -> {
+            if (f.isSuccess()) {
+                promise.trySuccess(null);
+            } else {
+                promise.tryFailure(f.cause());
+            }
+        });
+        return promise;
+    }
+
+    /**
+     * Remove a server from the ring and close its connection. Only keys
+     * of the removed server are routed to other servers.
+     *
+     * @param addr address of the server
+     * @return false if the server was not added
+     */
+    public synchronized boolean removeEndpoint(InetSocketAddress addr) {
+        Endpoint endpoint = endpoints.remove(addr);
+        if (endpoint == null) {
+            return false;
+        }
+        rebuildRing();
+        endpoint.client.shutdown();
+        return true;
+    }
+
+    /**
+     * Mark a server as healthy or unhealthy. Keys of an unhealthy server
+     * are routed to the next server on the ring.
+     *
+     * @param addr    address of the server
+     * @param healthy whether keys may be routed to the server
+     * @return false if the server was not added
+     */
+    public synchronized boolean setHealthy(InetSocketAddress addr, boolean healthy) {
+        Endpoint endpoint = endpoints.get(addr);
+        if (endpoint == null) {
+            return false;
+        }
+        endpoint.healthy = healthy;
+        return true;
+    }
+
+    /**
+     * Find the connection a key is routed to.
+     *
+     * @param key routing key
+     * @return connection of the first healthy server on the ring at or after the key
+     * @throws ChannelException if no server is healthy
+     */
+    public DataClient route(Object key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        Ring ring = this.ring;
+        int length = ring.hashes.length;
+        if (length > 0) {
+            int index = Arrays.binarySearch(ring.hashes, mix(key.hashCode()));
+            if (index < 0) {
+                index = -index - 1;
+            }
+            for (int i = 0; i < length; i++) {
+                Endpoint endpoint = ring.owners[(index + i) % length];
+                if (endpoint.isAvailable()) {
+                    return endpoint.client;
+                }
+            }
+        }
+        throw new ChannelException("No healthy endpoint");
+    }
+
+    public ChannelFuture send(Object key, Packet packet) {
+        return route(key).send(packet);
+    }
+
+    public ChannelFuture request(Object key, Packet packet, ResponseHandler handler) {
+        return route(key).request(packet, handler);
+    }
+
+    public CompletionStage<Response> requestAsync(Object key, Packet packet, Duration timeout) {
+        return route(key).requestAsync(packet, timeout);
+    }
+
+    /**
+     * Register a packet class on every connection, including
+     * connections to servers added later.
+     *
+     * @param id    packet id
+     * @param clazz packet class
+     */
+    public synchronized void register(short id, Class<? extends Packet> clazz) {
+        addRegistration(id, client -> client.getPacketRegistry().register(id, clazz));
+    }
+
+    /**
+     * Register a packet factory on every connection, including
+     * connections to servers added later.
+     *
+     * @param id      packet id
+     * @param factory factory creating empty packets to be read by the decoder
+     */
+    public synchronized void register(short id, Supplier<? extends Packet> factory) {
+        addRegistration(id, client -> client.getPacketRegistry().register(id, factory));
+    }
+
+    public synchronized boolean addHandler(EventHandler handler) {
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        if (!handlers.add(handler)) {
+            return false;
+        }
+        for (Endpoint endpoint : endpoints.values()) {
+            endpoint.client.addHandler(handler);
+        }
+        return true;
+    }
+
+    public synchronized boolean removeHandler(EventHandler handler) {
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        if (!handlers.remove(handler)) {
+            return false;
+        }
+        for (Endpoint endpoint : endpoints.values()) {
+            endpoint.client.removeHandler(handler);
+        }
+        return true;
+    }
+
+    public synchronized <P extends Packet> void on(Class<P> type, BiConsumer<? super DataClient, ? super P> handler) {
+        if (type == null) {
+            throw new NullPointerException("type");
+        }
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        Consumer<DataClient> registration = client -> client.on(type, handler);
+        typedHandlers.computeIfAbsent(type, t -> new ArrayList<>()).add(registration);
+        for (Endpoint endpoint : endpoints.values()) {
+            registration.accept(endpoint.client);
+        }
+    }
+
+    public synchronized boolean off(Class<? extends Packet> type) {
+        if (typedHandlers.remove(type) == null) {
+            return false;
+        }
+        for (Endpoint endpoint : endpoints.values()) {
+            endpoint.client.off(type);
+        }
+        return true;
+    }
+
+    /**
+     * Set the delay before a lost connection is reconnected.
+     *
+     * @param reconnectDelay delay in milliseconds, or 0 to not reconnect
+     */
+    public synchronized void setReconnectDelayMillis(long reconnectDelay) {
+        this.reconnectDelay = reconnectDelay;
+        for (Endpoint endpoint : endpoints.values()) {
+            endpoint.client.setReconnectDelayMillis(reconnectDelay);
+        }
+    }
+
+    public synchronized List<InetSocketAddress> getEndpoints() {
+        return new ArrayList<>(endpoints.keySet());
+    }
+
+    public synchronized DataClient getClient(InetSocketAddress addr) {
+        Endpoint endpoint = endpoints.get(addr);
+        return endpoint != null ? endpoint.client : null;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    /**
+     * Close every connection and stop reconnecting.
+     */
+    public synchronized void close() {
+        for (Endpoint endpoint : endpoints.values()) {
+            endpoint.client.shutdown();
+        }
+        endpoints.clear();
+        rebuildRing();
+        if (ownsGroup) {
+            group.shutdownGracefully();
+        }
+    }
+
+    private void addRegistration(short id, Consumer<DataClient> registration) {
+        registrations.put(id, registration);
+        for (Endpoint endpoint : endpoints.values()) {
+            registration.accept(endpoint.client);
+        }
+    }
+
+    private void rebuildRing() {
+        TreeMap<Long, Endpoint> points = new TreeMap<>();
+        for (Endpoint endpoint : endpoints.values()) {
+            long seed = hash(endpoint.addr.getHostString() + ':' + endpoint.addr.getPort());
+            for (int i = 0; i < virtualNodes; i++) {
+                // On a collision the first endpoint keeps the point, in insertion order.
+                points.putIfAbsent(mix(seed + i), endpoint);
+            }
+        }
+        long[] hashes = new long[points.size()];
+        Endpoint[] owners = new Endpoint[points.size()];
+        int i = 0;
+        for (Map.Entry<Long, Endpoint> point : points.entrySet()) {
+            hashes[i] = point.getKey();
+            owners[i++] = point.getValue();
+        }
+        ring = new Ring(hashes, owners);
+    }
+
+    /**
+     * 64 bit FNV-1a hash of a string, which is stable across processes.
+     */
+    private static long hash(String s) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreading nearby values over the ring.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class Ring {
+
+        private final long[] hashes;
+        private final Endpoint[] owners;
+
+        Ring(long[] hashes, Endpoint[] owners) {
+            this.hashes = hashes;
+            this.owners = owners;
+        }
+    }
+
+    private static final class Endpoint {
+
+        private final InetSocketAddress addr;
+        private final DataClient client;
+        private volatile boolean healthy = true;
+
+        Endpoint(InetSocketAddress addr, DataClient client) {
+            this.addr = addr;
+            this.client = client;
+        }
+
+        boolean isAvailable() {
+            return healthy && client.isActive() && !client.isGoingAway();
+        }
+    }
+}
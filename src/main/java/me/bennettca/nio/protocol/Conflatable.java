@@ -0,0 +1,14 @@
+package me.bennettca.nio.protocol;
+
+/**
+ * Packet carrying a state update which supersedes earlier updates with
+ * the same key, e.g. the latest price of an instrument. Only the newest
+ * pending update per key is sent to a slow connection.
+ */
+public interface Conflatable {
+
+    /**
+     * @return key identifying the state this packet updates
+     */
+    Object getConflationKey();
+}
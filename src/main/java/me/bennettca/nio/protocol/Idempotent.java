@@ -0,0 +1,11 @@
+package me.bennettca.nio.protocol;
+
+/**
+ * Packet which may safely be handled more than once, e.g. a read or a
+ * write of an absolute value. Requests for it which are outstanding when
+ * a client loses its connection are resent after it reconnects instead
+ * of failing, so the packet must be writable more than once.
+ */
+public interface Idempotent {
+
+}
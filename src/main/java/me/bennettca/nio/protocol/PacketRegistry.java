@@ -7,39 +7,58 @@ import me.bennettca.nio.protocol.packet.ResponsePacket;
 import me.bennettca.nio.BufferedPacket;
 import me.bennettca.nio.protocol.packet.FilePacket;
 import me.bennettca.nio.protocol.packet.ByteBufPacket;
+import me.bennettca.nio.protocol.packet.GoAwayPacket;
 import me.bennettca.nio.protocol.packet.KeepAlivePacket;
+import me.bennettca.nio.protocol.packet.OverloadedPacket;
 import me.bennettca.nio.protocol.stream.ChunkedFilePacket;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.function.Supplier;
 
+/**
+ * Maps packet ids to packet factories. Factories are stored in an array
+ * indexed by packet id, so lookups on the decode and send paths are a
+ * single array load. Registration copies the array and is expected to
+ * be rare.
+ */
 public final class PacketRegistry {
 
-    private final Map<Short, Class<? extends Packet>> packets;
+    /**
+     * Offset applied to packet ids so the negative internal ids map to
+     * the start of the factory array. Other tables indexed by packet id
+     * use the same offset.
+     */
+    public static final int ID_OFFSET = 16;
+
+    private volatile Supplier<? extends Packet>[] factories;
+    // Registered class of each factory, so ids are found without creating packets.
+    private volatile Class<?>[] classes;
 
     public PacketRegistry() {
-        packets = new ConcurrentHashMap<>(8);
+        factories = newTable(ID_OFFSET + 2);
+        classes = new Class<?>[factories.length];
 
-        packets.put(JsonPacket.PACKET_ID, JsonPacket.class); // -7
-        packets.put(KeepAlivePacket.PACKET_ID, KeepAlivePacket.class); // -6
-        packets.put(RequestPacket.PACKET_ID, RequestPacket.class); // -5
-        packets.put(ResponsePacket.PACKET_ID, ResponsePacket.class); // -4
-        packets.put(BufferedPacket.PACKET_ID, BufferedPacket.class); // -3
-        packets.put(ChunkedFilePacket.PACKET_ID, ChunkedFilePacket.class); // -2
-        packets.put(ByteBufPacket.PACKET_ID, ByteBufPacket.class); // -1
-        packets.put(FilePacket.PACKET_ID, FilePacket.class); // 1
+        put(OverloadedPacket.PACKET_ID, OverloadedPacket.class, () -> OverloadedPacket.INSTANCE); // -9
+        put(GoAwayPacket.PACKET_ID, GoAwayPacket.class, GoAwayPacket::new); // -8
+        put(JsonPacket.PACKET_ID, JsonPacket.class, JsonPacket::new); // -7
+        put(KeepAlivePacket.PACKET_ID, KeepAlivePacket.class, () -> KeepAlivePacket.INSTANCE); // -6
+        put(RequestPacket.PACKET_ID, RequestPacket.class, () -> new RequestPacket(this)); // -5
+        put(ResponsePacket.PACKET_ID, ResponsePacket.class, () -> new ResponsePacket(this)); // -4
+        put(BufferedPacket.PACKET_ID, BufferedPacket.class, BufferedPacket::new); // -3
+        put(ChunkedFilePacket.PACKET_ID, ChunkedFilePacket.class, ChunkedFilePacket::new); // -2
+        put(ByteBufPacket.PACKET_ID, ByteBufPacket.class, ByteBufPacket::new); // -1
+        put(FilePacket.PACKET_ID, FilePacket.class, FilePacket::new); // 1
     }
 
     public Packet newInstance(short id) {
-        Class<? extends Packet> clazz = packets.get(id);
-        if (clazz != null) {
-            try {
-                return clazz.newInstance();
-            } catch (InstantiationException | IllegalAccessException e) {
-                e.printStackTrace();
-            }
-        }
-        return null;
+        Supplier<? extends Packet> factory = factory(id);
+        return factory != null ? factory.get() : null;
     }
 
     public void validate(Object msg) {
@@ -55,28 +74,191 @@ public final class PacketRegistry {
         }
     }
 
+    /**
+     * Register a packet class. The class must have a no-arg constructor,
+     * which is bound to a factory once so decoding does not need reflection.
+     *
+     * @param id    packet id
+     * @param clazz packet class
+     * @return true if a previous registration was replaced
+     * @throws IllegalArgumentException if the class has no no-arg constructor,
+     * which is checked here rather than when the first packet is decoded
+     */
     public boolean register(short id, Class<? extends Packet> clazz) {
-        if (id < 0) {
-            throw new IllegalArgumentException("Packet id cannot be negative: " + id);
+        checkId(id);
+        if (clazz == null) {
+            throw new NullPointerException("packet class");
+        }
+        return put(id, clazz, constructorFactory(clazz)) != null;
+    }
+
+    /**
+     * Register a packet factory. The factory is invoked once to find the
+     * class it creates, which typed handlers are looked up by.
+     *
+     * @param id      packet id
+     * @param factory factory creating empty packets to be read by the decoder
+     * @return true if a previous registration was replaced
+     */
+    public boolean register(short id, Supplier<? extends Packet> factory) {
+        checkId(id);
+        if (factory == null) {
+            throw new NullPointerException("factory");
         }
+        return put(id, factory.get().getClass(), factory) != null;
+    }
+
+    /**
+     * Register a packet factory creating packets of the given class.
+     *
+     * @param id      packet id
+     * @param clazz   class typed handlers of the packet are registered with
+     * @param factory factory creating empty packets to be read by the decoder
+     * @param <P>     type of the packet
+     * @return true if a previous registration was replaced
+     */
+    public <P extends Packet> boolean register(short id, Class<P> clazz, Supplier<? extends P> factory) {
+        checkId(id);
         if (clazz == null) {
             throw new NullPointerException("packet class");
         }
-        return packets.put(id, clazz) != null;
+        if (factory == null) {
+            throw new NullPointerException("factory");
+        }
+        return put(id, clazz, factory) != null;
+    }
+
+    public synchronized boolean unregister(short id) {
+        checkId(id);
+        Supplier<? extends Packet>[] table = factories;
+        int index = id + ID_OFFSET;
+        if (index >= table.length || table[index] == null) {
+            return false;
+        }
+        table = table.clone();
+        table[index] = null;
+        Class<?>[] classes = this.classes.clone();
+        classes[index] = null;
+        factories = table;
+        this.classes = classes;
+        return true;
+    }
+
+    /**
+     * Find the id a packet class is registered under. All registrations
+     * are searched, so this is meant for setup rather than the send path.
+     *
+     * @param clazz packet class
+     * @return id of the packet class
+     * @throws IllegalArgumentException if the class is not registered
+     */
+    public short getId(Class<? extends Packet> clazz) {
+        if (clazz == null) {
+            throw new NullPointerException("packet class");
+        }
+        Class<?>[] classes = this.classes;
+        for (int i = 0; i < classes.length; i++) {
+            if (classes[i] == clazz) {
+                return (short) (i - ID_OFFSET);
+            }
+        }
+        throw new IllegalArgumentException("Packet class not registered: " + clazz.getName());
+    }
+
+    public boolean isRegistered(short id) {
+        return factory(id) != null;
+    }
+
+    public synchronized void clear() {
+        factories = newTable(factories.length);
+        classes = new Class<?>[factories.length];
+    }
+
+    private Supplier<? extends Packet> factory(short id) {
+        Supplier<? extends Packet>[] table = factories;
+        int index = id + ID_OFFSET;
+        if (index < 0 || index >= table.length) {
+            return null;
+        }
+        return table[index];
+    }
+
+    private synchronized Supplier<? extends Packet> put(short id, Class<?> clazz,
+            Supplier<? extends Packet> factory) {
+        Supplier<? extends Packet>[] table = factories;
+        Class<?>[] classes = this.classes;
+        int index = id + ID_OFFSET;
+        if (index >= table.length) {
+            int length = Math.max(index + 1, table.length << 1);
+            table = Arrays.copyOf(table, length);
+            classes = Arrays.copyOf(classes, length);
+        } else {
+            table = table.clone();
+            classes = classes.clone();
+        }
+        Supplier<? extends Packet> previous = table[index];
+        table[index] = factory;
+        classes[index] = clazz;
+        factories = table;
+        this.classes = classes;
+        return previous;
     }
 
-    public boolean unregister(short id) {
+    private static void checkId(short id) {
         if (id < 0) {
             throw new IllegalArgumentException("Packet id cannot be negative: " + id);
         }
-        return packets.remove(id) != null;
     }
 
-    public boolean isRegistered(short id) {
-        return packets.containsKey(id);
+    @SuppressWarnings("unchecked")
+    private static Supplier<? extends Packet>[] newTable(int length) {
+        return (Supplier<? extends Packet>[]) new Supplier<?>[length];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Supplier<? extends Packet> constructorFactory(Class<? extends Packet> clazz) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle constructor;
+        try {
+            Constructor<? extends Packet> c = clazz.getDeclaredConstructor();
+            c.setAccessible(true);
+            constructor = lookup.unreflectConstructor(c);
+        } catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+            throw new IllegalArgumentException("Packet class must have an accessible"
+                    + " no-arg constructor: " + clazz.getName(), e);
+        }
+        if (!isVisible(clazz)) {
+            // A lambda spun here would be defined by this class loader, which
+            // cannot link against classes of child or plugin class loaders.
+            return handleFactory(clazz, constructor);
+        }
+        try {
+            CallSite site = LambdaMetafactory.metafactory(lookup, "get",
+                    MethodType.methodType(Supplier.class), MethodType.methodType(Object.class),
+                    constructor, MethodType.methodType(clazz));
+            return (Supplier<? extends Packet>) site.getTarget().invoke();
+        } catch (Throwable t) {
+            // Not every constructor can be spun into a lambda (e.g. non-public
+            // classes in other packages), fall back to invoking the handle.
+            return handleFactory(clazz, constructor);
+        }
     }
 
-    public void clear() {
-        packets.clear();
+    private static Supplier<? extends Packet> handleFactory(Class<? extends Packet> clazz, MethodHandle constructor) {
+        return () -> {
+            try {
+                return (Packet) constructor.invoke();
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to create packet: " + clazz.getName(), e);
+            }
+        };
+    }
+
+    private static boolean isVisible(Class<?> clazz) {
+        try {
+            return Class.forName(clazz.getName(), false, PacketRegistry.class.getClassLoader()) == clazz;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
     }
 }
@@ -0,0 +1,139 @@
+package me.bennettca.nio.protocol.codec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Predicts the encoded body size of packets which are not length aware,
+ * keyed by packet id. Works like netty's adaptive receive allocator: the
+ * prediction grows to fit as soon as a packet outgrows it and shrinks
+ * only after two consecutive packets were noticeably smaller.
+ * <p>
+ * State is kept in plain arrays indexed by packet id and updated without
+ * synchronization. Concurrent updates may be lost, which only costs the
+ * accuracy of a single guess.
+ */
+public final class AdaptiveSizePredictor {
+
+    private static final int INDEX_DECREMENT = 1;
+
+    private static final int[] SIZE_TABLE;
+    private static final byte INITIAL_INDEX;
+
+    static {
+        List<Integer> sizeTable = new ArrayList<>();
+        for (int i = 16; i < 512; i += 16) {
+            sizeTable.add(i);
+        }
+        for (int i = 512; i > 0 && i <= (1 << 24); i <<= 1) {
+            sizeTable.add(i);
+        }
+
+        SIZE_TABLE = new int[sizeTable.size()];
+        for (int i = 0; i < SIZE_TABLE.length; i++) {
+            SIZE_TABLE[i] = sizeTable.get(i);
+        }
+        INITIAL_INDEX = (byte) sizeTableIndex(256);
+    }
+
+    private final byte[] indexes = new byte[1 << 16];
+    private final boolean[] decreaseNow = new boolean[1 << 16];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    AdaptiveSizePredictor() {
+        Arrays.fill(indexes, INITIAL_INDEX);
+    }
+
+    /**
+     * Get the current size guess for a packet id.
+     *
+     * @param id packet id
+     * @return predicted body size in bytes
+     */
+    public int predict(short id) {
+        return SIZE_TABLE[indexes[id & 0xFFFF]];
+    }
+
+    /**
+     * Record the actual body size of an encoded packet.
+     *
+     * @param id        packet id
+     * @param predicted size which was predicted before encoding
+     * @param actual    actual encoded body size
+     */
+    public void record(short id, int predicted, int actual) {
+        int slot = id & 0xFFFF;
+        int index = indexes[slot];
+        if (actual > predicted) {
+            misses.increment();
+            indexes[slot] = (byte) sizeTableIndex(actual);
+            decreaseNow[slot] = false;
+            return;
+        }
+        hits.increment();
+        if (actual <= SIZE_TABLE[Math.max(0, index - INDEX_DECREMENT - 1)]) {
+            if (decreaseNow[slot]) {
+                indexes[slot] = (byte) Math.max(index - INDEX_DECREMENT, 0);
+                decreaseNow[slot] = false;
+            } else {
+                decreaseNow[slot] = true;
+            }
+        } else {
+            decreaseNow[slot] = false;
+        }
+    }
+
+    /**
+     * @return number of packets which fit in the predicted buffer
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of packets which outgrew the predicted buffer
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return ratio of hits to all recorded packets, or 0 if none were recorded
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+    }
+
+    /**
+     * Find the index of the smallest size in the table which fits the given size.
+     */
+    private static int sizeTableIndex(int size) {
+        int low = 0;
+        int high = SIZE_TABLE.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (SIZE_TABLE[mid] < size) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveSizePredictor(hits: " + getHits() + ", misses: " + getMisses() + ')';
+    }
+}
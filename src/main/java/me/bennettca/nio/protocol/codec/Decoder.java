@@ -19,10 +19,22 @@ public class Decoder extends ByteToMessageDecoder {
     private static final int HEADER_LENGTH = 5;
 
     private final PacketRegistry registry;
+    private final boolean recycling;
     private ChunkedFilePacket currentStream;
 
     public Decoder(PacketRegistry registry) {
+        this(registry, false);
+    }
+
+    /**
+     * Construct a decoder.
+     *
+     * @param registry  registry used to create packets
+     * @param recycling whether response packets are taken from a pool
+     */
+    public Decoder(PacketRegistry registry, boolean recycling) {
         this.registry = registry;
+        this.recycling = recycling;
     }
 
     @Override
@@ -68,7 +80,7 @@ public class Decoder extends ByteToMessageDecoder {
                 packet = new RequestPacket(registry);
                 break;
             case ResponsePacket.PACKET_ID:
-                packet = new ResponsePacket(registry);
+                packet = recycling ? ResponsePacket.newInstance(registry) : new ResponsePacket(registry);
                 break;
             case BufferedPacket.PACKET_ID:
                 packet = new BufferedPacket(buf);
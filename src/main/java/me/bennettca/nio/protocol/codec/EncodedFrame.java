@@ -0,0 +1,45 @@
+package me.bennettca.nio.protocol.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Packet which has already been encoded into a complete frame, written
+ * by the {@link Encoder} as is. Duplicates share the frame, so a packet
+ * broadcast to many channels is only encoded once.
+ */
+public final class EncodedFrame extends DefaultByteBufHolder {
+
+    /**
+     * Frame without any bytes. Its write completes once everything
+     * written before it was flushed.
+     */
+    public static final EncodedFrame EMPTY = new EncodedFrame(Unpooled.EMPTY_BUFFER);
+
+    EncodedFrame(ByteBuf frame) {
+        super(frame);
+    }
+
+    @Override
+    public EncodedFrame copy() {
+        return new EncodedFrame(content().copy());
+    }
+
+    @Override
+    public EncodedFrame duplicate() {
+        return new EncodedFrame(content().duplicate());
+    }
+
+    @Override
+    public EncodedFrame retain() {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    public EncodedFrame retain(int increment) {
+        super.retain(increment);
+        return this;
+    }
+}
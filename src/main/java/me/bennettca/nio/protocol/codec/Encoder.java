@@ -1,16 +1,22 @@
 package me.bennettca.nio.protocol.codec;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerAdapter;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.CodecException;
 import io.netty.handler.codec.EncoderException;
 import io.netty.handler.codec.TooLongFrameException;
 import io.netty.handler.codec.UnsupportedMessageTypeException;
 import me.bennettca.nio.protocol.Medium;
 import me.bennettca.nio.protocol.Packet;
+import me.bennettca.nio.protocol.packet.ByteBufPacket;
 import me.bennettca.nio.protocol.packet.KeepAlivePacket;
+import me.bennettca.nio.protocol.packet.RequestPacket;
+import me.bennettca.nio.protocol.packet.ResponsePacket;
 import me.bennettca.nio.protocol.LengthAwarePacket;
 import me.bennettca.nio.protocol.stream.ChunkedFilePacket;
 
@@ -19,68 +25,157 @@ public final class Encoder extends ChannelHandlerAdapter {
 
     public static final Encoder INSTANCE = new Encoder();
 
+    private static final int HEADER_LENGTH = 5;
+
+    private final AdaptiveSizePredictor sizePredictor = new AdaptiveSizePredictor();
+
     @Override
     public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof EncodedFrame) {
+            ctx.write(((EncodedFrame) msg).content(), promise);
+            return;
+        }
+        ByteBuf out;
+        try {
+            out = encodeMessage(ctx.alloc(), msg);
+        } catch (CodecException e) {
+            promise.tryFailure(e);
+            ctx.fireExceptionCaught(e);
+            return;
+        }
+
+        ctx.write(out, promise);
+        if (msg instanceof ChunkedFilePacket) {
+            ctx.write(((ChunkedFilePacket) msg).getChunks());
+        }
+    }
+
+    /**
+     * Encode a packet into a frame which can be written to any number
+     * of channels, e.g. to broadcast it. Chunked packets are streamed
+     * and cannot be encoded ahead of time.
+     *
+     * @param alloc  allocator of the frame buffer
+     * @param packet packet to encode
+     * @return encoded frame, which must be written or released
+     */
+    public EncodedFrame encodeFrame(ByteBufAllocator alloc, Packet packet) {
+        if (packet == null) {
+            throw new NullPointerException("packet");
+        }
+        if (packet instanceof ChunkedFilePacket) {
+            throw new IllegalArgumentException("Chunked packets cannot be encoded ahead of time");
+        }
+        return new EncodedFrame(encodeMessage(alloc, packet));
+    }
+
+    private ByteBuf encodeMessage(ByteBufAllocator alloc, Object msg) {
         if (msg instanceof KeepAlivePacket) {
-            ByteBuf buf = ctx.alloc().buffer(5);
+            ByteBuf buf = alloc.buffer(HEADER_LENGTH);
             buf.writeShort(KeepAlivePacket.PACKET_ID);
             buf.writeMedium(0);
-            ctx.writeAndFlush(buf, promise);
-            return;
+            return buf;
         }
-        short id;
-        ByteBuf data;
-        if (msg instanceof Packet) {
-            Packet packet = (Packet) msg;
-            if (packet instanceof LengthAwarePacket) {
-                int len = ((LengthAwarePacket) packet).length();
-                if (len < 0) {
-                    throw new EncoderException("packet length < 0");
-                }
-                data = ctx.alloc().buffer(len, len);
+        try {
+            if (msg instanceof ByteBufPacket) {
+                ByteBufPacket packet = (ByteBufPacket) msg;
+                return compose(alloc, packet.getId(), packet.takeBuffer());
+            } else if (msg instanceof Packet) {
+                return encode(alloc, (Packet) msg);
+            } else if (msg instanceof ByteBuf) {
+                return compose(alloc, (short) 0, (ByteBuf) msg);
             } else {
-                data = ctx.alloc().buffer();
+                throw new UnsupportedMessageTypeException(msg.getClass().getSimpleName());
             }
-            boolean success = false;
-            try {
-                packet.write(data);
-                success = true;
-            } catch (Exception e) {
-                ctx.fireExceptionCaught(new EncoderException("An error occured"
-                        + " while encoding packet: " + packet, e));
-            } finally {
-                if (!success) {
-                    data.release();
-                }
+        } finally {
+            if (msg instanceof RequestPacket) {
+                ((RequestPacket) msg).recycle();
+            } else if (msg instanceof ResponsePacket) {
+                ((ResponsePacket) msg).recycle();
             }
-            id = packet.getId();
-        } else if (msg instanceof ByteBuf) {
-            id = 0;
-            data = (ByteBuf) msg;
+        }
+    }
+
+    /**
+     * Encode a packet straight into its frame. The header bytes are
+     * reserved up front and backfilled once the body length is known,
+     * so the body is never copied into a second buffer.
+     */
+    private ByteBuf encode(ByteBufAllocator alloc, Packet packet) {
+        ByteBuf out;
+        int predicted;
+        if (packet instanceof LengthAwarePacket) {
+            int len = ((LengthAwarePacket) packet).length();
+            if (len < 0) {
+                throw new EncoderException("packet length < 0");
+            }
+            int frameLen = HEADER_LENGTH + len;
+            out = alloc.buffer(frameLen, frameLen);
+            predicted = -1;
         } else {
-            ctx.fireExceptionCaught(new UnsupportedMessageTypeException(msg.getClass().getSimpleName()));
-            return;
+            predicted = sizePredictor.predict(packet.getId());
+            out = alloc.buffer(HEADER_LENGTH + predicted);
+        }
+        out.writerIndex(HEADER_LENGTH);
+
+        boolean success = false;
+        try {
+            packet.write(out);
+            int bodyLen = out.writerIndex() - HEADER_LENGTH;
+            checkLength(bodyLen);
+            if (predicted >= 0) {
+                sizePredictor.record(packet.getId(), predicted, bodyLen);
+            }
+            out.setShort(0, packet.getId());
+            out.setMedium(2, bodyLen);
+            success = true;
+        } catch (CodecException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new EncoderException("An error occured while encoding packet: " + packet, e);
+        } finally {
+            if (!success) {
+                out.release();
+            }
         }
+        return out;
+    }
 
-        int bodyLen = data.readableBytes();
+    /**
+     * Prepend a header to an already encoded body as a composite
+     * buffer, handing the body to the transport without copying it.
+     */
+    private ByteBuf compose(ByteBufAllocator alloc, short id, ByteBuf body) {
+        int bodyLen = body.readableBytes();
         if (bodyLen > Medium.MAX_UNSIGNED_VALUE) {
-            ctx.fireExceptionCaught(new TooLongFrameException(String.format("length: %d"
-                    + " (expected: <= %d)", bodyLen, Medium.MAX_UNSIGNED_VALUE)));
-            return;
+            body.release();
+            checkLength(bodyLen);
         }
+        ByteBuf header = alloc.buffer(HEADER_LENGTH, HEADER_LENGTH);
+        header.writeShort(id);
+        header.writeMedium(bodyLen);
 
-        int frameLen = bodyLen + 5;
-        ByteBuf out = ctx.alloc().buffer(frameLen, frameLen);
-        out.writeShort(id);
-        out.writeMedium(bodyLen);
-        out.writeBytes(data);
-        data.release();
+        CompositeByteBuf out = alloc.compositeBuffer(2);
+        out.addComponents(header, body);
+        out.writerIndex(HEADER_LENGTH + bodyLen);
+        return out;
+    }
 
-        ctx.write(out, promise);
-        if (msg instanceof ChunkedFilePacket) {
-            ctx.write(((ChunkedFilePacket) msg).getChunks());
+    /**
+     * Get the size predictor used to pre-size buffers for packets
+     * which are not length aware.
+     *
+     * @return size predictor of this encoder
+     */
+    public AdaptiveSizePredictor getSizePredictor() {
+        return sizePredictor;
+    }
+
+    private static void checkLength(int bodyLen) {
+        if (bodyLen > Medium.MAX_UNSIGNED_VALUE) {
+            throw new TooLongFrameException(String.format("length: %d"
+                    + " (expected: <= %d)", bodyLen, Medium.MAX_UNSIGNED_VALUE));
         }
-        ctx.flush();
     }
 
     private Encoder() {
@@ -46,4 +46,20 @@ public class ByteBufPacket extends LengthAwarePacket {
     public ByteBuf buffer() {
         return buffer;
     }
+
+    /**
+     * Transfer ownership of the underlying buffer to the caller, which
+     * becomes responsible for releasing it. Used by the encoder to send
+     * the payload without copying it.
+     *
+     * @return the buffer held by this packet
+     */
+    public ByteBuf takeBuffer() {
+        if (buffer == null) {
+            throw new NullPointerException("buffer");
+        }
+        ByteBuf buf = buffer;
+        buffer = null;
+        return buf;
+    }
 }
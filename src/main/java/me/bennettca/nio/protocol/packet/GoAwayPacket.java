@@ -0,0 +1,48 @@
+package me.bennettca.nio.protocol.packet;
+
+import io.netty.buffer.ByteBuf;
+import me.bennettca.nio.protocol.LengthAwarePacket;
+
+/**
+ * Sent by a server which is shutting down. The connection stays open
+ * while outstanding requests complete, for at most the drain timeout,
+ * but no new requests should be sent on it.
+ */
+public final class GoAwayPacket extends LengthAwarePacket {
+
+    public static final short PACKET_ID = -8;
+
+    private long drainTimeoutMillis;
+
+    public GoAwayPacket() {
+        this(0);
+    }
+
+    public GoAwayPacket(long drainTimeoutMillis) {
+        super(PACKET_ID);
+
+        this.drainTimeoutMillis = drainTimeoutMillis;
+    }
+
+    @Override
+    public void read(ByteBuf buf) {
+        drainTimeoutMillis = buf.readLong();
+    }
+
+    @Override
+    public void write(ByteBuf buf) {
+        buf.writeLong(drainTimeoutMillis);
+    }
+
+    @Override
+    public int length() {
+        return 8;
+    }
+
+    /**
+     * @return time after which the server closes the connection
+     */
+    public long getDrainTimeoutMillis() {
+        return drainTimeoutMillis;
+    }
+}
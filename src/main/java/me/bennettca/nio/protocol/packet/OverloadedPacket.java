@@ -0,0 +1,34 @@
+package me.bennettca.nio.protocol.packet;
+
+import io.netty.buffer.ByteBuf;
+import me.bennettca.nio.protocol.LengthAwarePacket;
+
+/**
+ * Response to a request which the remote host rejected without handling
+ * it because it is overloaded. The request fails with a
+ * {@link me.bennettca.nio.request.RequestRejectedException}.
+ */
+public final class OverloadedPacket extends LengthAwarePacket {
+
+    public static final OverloadedPacket INSTANCE = new OverloadedPacket();
+    public static final short PACKET_ID = -9;
+
+    private OverloadedPacket() {
+        super(PACKET_ID);
+    }
+
+    @Override
+    public void read(ByteBuf buf) {
+
+    }
+
+    @Override
+    public void write(ByteBuf buf) {
+
+    }
+
+    @Override
+    public int length() {
+        return 0;
+    }
+}
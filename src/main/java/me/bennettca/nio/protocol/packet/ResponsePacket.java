@@ -1,6 +1,8 @@
 package me.bennettca.nio.protocol.packet;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
+import io.netty.util.Recycler.Handle;
 import me.bennettca.nio.BufferedPacket;
 import me.bennettca.nio.protocol.Packet;
 import me.bennettca.nio.protocol.PacketRegistry;
@@ -9,6 +11,14 @@ public class ResponsePacket extends Packet {
 
     public static final short PACKET_ID = -4;
 
+    private static final Recycler<ResponsePacket> RECYCLER = new Recycler<ResponsePacket>() {
+        @Override
+        protected ResponsePacket newObject(Handle<ResponsePacket> handle) {
+            return new ResponsePacket(handle);
+        }
+    };
+
+    private final Handle<ResponsePacket> recyclerHandle;
     private long uniqueId;
     private Packet packet;
     private PacketRegistry registry;
@@ -17,6 +27,7 @@ public class ResponsePacket extends Packet {
         super(PACKET_ID);
 
         this.registry = registry;
+        recyclerHandle = null;
     }
 
     public ResponsePacket(long uniqueId, Packet packet) {
@@ -24,6 +35,42 @@ public class ResponsePacket extends Packet {
 
         this.uniqueId = uniqueId;
         this.packet = packet;
+        recyclerHandle = null;
+    }
+
+    private ResponsePacket(Handle<ResponsePacket> recyclerHandle) {
+        super(PACKET_ID);
+
+        this.recyclerHandle = recyclerHandle;
+    }
+
+    /**
+     * Get a pooled packet to be read by the decoder. It is only reused
+     * if recycled on the io thread which decoded it.
+     *
+     * @param registry registry used to read the wrapped packet
+     * @return pooled packet, returned to the pool on {@link #recycle()}
+     */
+    public static ResponsePacket newInstance(PacketRegistry registry) {
+        ResponsePacket packet = RECYCLER.get();
+        packet.registry = registry;
+        return packet;
+    }
+
+    /**
+     * Get a pooled packet to be sent. It is recycled by the encoder on
+     * the io thread, and only reused if it was created on that thread.
+     * Packets sent from application threads are allocated every time.
+     *
+     * @param uniqueId unique id of the request
+     * @param packet   wrapped packet
+     * @return pooled packet, returned to the pool on {@link #recycle()}
+     */
+    public static ResponsePacket newInstance(long uniqueId, Packet packet) {
+        ResponsePacket msg = RECYCLER.get();
+        msg.uniqueId = uniqueId;
+        msg.packet = packet;
+        return msg;
     }
 
     @Override
@@ -53,6 +100,19 @@ public class ResponsePacket extends Packet {
         return packet;
     }
 
+    /**
+     * Return this packet to its pool once it has been encoded or
+     * handled. Does nothing for packets which were not pooled.
+     */
+    public void recycle() {
+        if (recyclerHandle != null) {
+            uniqueId = 0;
+            packet = null;
+            registry = null;
+            recyclerHandle.recycle(this);
+        }
+    }
+
     @Override
     public String toString() {
         StringBuilder buf = new StringBuilder("ResponsePacket(");
@@ -1,15 +1,55 @@
 package me.bennettca.nio.request;
 
+import io.netty.util.Recycler;
+import io.netty.util.Recycler.Handle;
+
 public class DefaultRequest implements Request {
 
-    private final ResponseHandler handler;
+    private static final Recycler<DefaultRequest> RECYCLER = new Recycler<DefaultRequest>() {
+        @Override
+        protected DefaultRequest newObject(Handle<DefaultRequest> handle) {
+            return new DefaultRequest(handle);
+        }
+    };
+
+    private final Handle<DefaultRequest> recyclerHandle;
+    private ResponseHandler handler;
 
     public DefaultRequest(ResponseHandler handler) {
         this.handler = handler;
+        recyclerHandle = null;
+    }
+
+    private DefaultRequest(Handle<DefaultRequest> recyclerHandle) {
+        this.recyclerHandle = recyclerHandle;
+    }
+
+    /**
+     * Get a pooled request. Pools are per thread and this netty version
+     * drops objects released on another thread, so a request is only
+     * reused if it is completed on the thread which created it, e.g. a
+     * request made from the io thread. Requests made from application
+     * threads are allocated every time.
+     *
+     * @param handler handler to be used
+     * @return pooled request, returned to the pool on {@link #release()}
+     */
+    public static DefaultRequest newInstance(ResponseHandler handler) {
+        DefaultRequest request = RECYCLER.get();
+        request.handler = handler;
+        return request;
     }
 
     @Override
     public ResponseHandler getHandler() {
         return handler;
     }
+
+    @Override
+    public void release() {
+        if (recyclerHandle != null) {
+            handler = null;
+            recyclerHandle.recycle(this);
+        }
+    }
 }
@@ -1,17 +1,54 @@
 package me.bennettca.nio.request;
 
+import io.netty.util.Recycler;
+import io.netty.util.Recycler.Handle;
 import me.bennettca.nio.protocol.Packet;
 
 public class DefaultResponse implements Response {
 
-    private final Packet packet;
+    private static final Recycler<DefaultResponse> RECYCLER = new Recycler<DefaultResponse>() {
+        @Override
+        protected DefaultResponse newObject(Handle<DefaultResponse> handle) {
+            return new DefaultResponse(handle);
+        }
+    };
+
+    private final Handle<DefaultResponse> recyclerHandle;
+    private Packet packet;
 
     public DefaultResponse(Packet packet) {
         this.packet = packet;
+        recyclerHandle = null;
+    }
+
+    private DefaultResponse(Handle<DefaultResponse> recyclerHandle) {
+        this.recyclerHandle = recyclerHandle;
+    }
+
+    /**
+     * Get a pooled response. It is only reused if released on the
+     * thread which created it, objects released on another thread are
+     * dropped by the pool.
+     *
+     * @param packet response packet
+     * @return pooled response, returned to the pool on {@link #release()}
+     */
+    public static DefaultResponse newInstance(Packet packet) {
+        DefaultResponse response = RECYCLER.get();
+        response.packet = packet;
+        return response;
     }
 
     @Override
     public Packet getPacket() {
         return packet;
     }
+
+    @Override
+    public void release() {
+        if (recyclerHandle != null) {
+            packet = null;
+            recyclerHandle.recycle(this);
+        }
+    }
 }
@@ -0,0 +1,63 @@
+package me.bennettca.nio.request;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Response handler which completes a future. The future is completed
+ * on the thread which handled the response, or through the given
+ * executor if one was set.
+ */
+public final class FutureResponseHandler implements ResponseHandler {
+
+    private final CompletableFuture<Response> future = new CompletableFuture<>();
+    private final Executor executor;
+    private final boolean detach;
+
+    /**
+     * Construct a future response handler.
+     *
+     * @param executor executor to complete the future from, or null
+     *                 to complete it from the thread handling the response
+     * @param detach   whether responses are recycled and must be copied
+     *                 before being handed to the future
+     */
+    public FutureResponseHandler(Executor executor, boolean detach) {
+        this.executor = executor;
+        this.detach = detach;
+    }
+
+    @Override
+    public void responseReceived(Response response) {
+        if (detach) {
+            response = response instanceof TimedResponse
+                    ? new TimedResponse(response.getPacket(),
+                            ((TimedResponse) response).getTimeCompletedNanos(), TimeUnit.NANOSECONDS)
+                    : new DefaultResponse(response.getPacket());
+        }
+        Response result = response;
+        if (executor == null) {
+            future.complete(result);
+        } else {
+            executor.execute(() -> future.complete(result));
+        }
+    }
+
+    @Override
+    public void requestFailed() {
+        fail(new RequestFailedException("No response received"));
+    }
+
+    public void fail(Throwable cause) {
+        if (executor == null) {
+            future.completeExceptionally(cause);
+        } else {
+            executor.execute(() -> future.completeExceptionally(cause));
+        }
+    }
+
+    public CompletableFuture<Response> future() {
+        return future;
+    }
+}
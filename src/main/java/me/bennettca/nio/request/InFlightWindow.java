@@ -0,0 +1,289 @@
+package me.bennettca.nio.request;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of requests awaiting a response. Once the window is
+ * full, new requests are rejected, block the caller until a slot frees
+ * up, or are queued up to a limit and sent as earlier requests complete,
+ * depending on the {@link OverflowPolicy}.
+ * <p>
+ * A window may be shared by several request pools, e.g. one per server.
+ */
+public final class InFlightWindow {
+
+    public enum OverflowPolicy {
+        /**
+         * Fail new requests immediately.
+         */
+        REJECT,
+        /**
+         * Block the caller until a slot is free or the request timeout
+         * elapses. Requests made from a thread which may have to complete
+         * responses are rejected instead, as blocking it could keep the
+         * window from ever freeing a slot: on a server any io thread, the
+         * server executor and any handler thread of its dispatch strategy,
+         * on a client any thread of its event loop group.
+         */
+        BLOCK,
+        /**
+         * Queue new requests up to the queue limit, rejecting any beyond it.
+         */
+        QUEUE
+    }
+
+    /**
+     * Request deferred until a slot in the window is free.
+     */
+    public interface Deferred {
+
+        /**
+         * Send the request. The slot has already been acquired.
+         */
+        void run();
+
+        /**
+         * Fail the request without sending it.
+         *
+         * @param cause reason the request failed
+         */
+        void fail(Throwable cause);
+
+        /**
+         * @return request pool the request will be tracked by, or null
+         */
+        default RequestPool getPool() {
+            return null;
+        }
+    }
+
+    private final int maxInFlight;
+    private final OverflowPolicy policy;
+    private final int queueLimit;
+    private final ArrayDeque<Deferred> queue;
+
+    private int inFlight;
+    private int peakInFlight;
+    private long acquiredCount;
+    private long rejectedCount;
+    private long blockedCount;
+    private long queuedCount;
+
+    public InFlightWindow(int maxInFlight, OverflowPolicy policy) {
+        this(maxInFlight, policy, 0);
+    }
+
+    /**
+     * Construct an in-flight window.
+     *
+     * @param maxInFlight maximum number of requests awaiting a response
+     * @param policy      what to do with requests once the window is full
+     * @param queueLimit  maximum number of queued requests, only used by
+     *                    {@link OverflowPolicy#QUEUE}
+     */
+    public InFlightWindow(int maxInFlight, OverflowPolicy policy, int queueLimit) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight: " + maxInFlight + " (expected: > 0)");
+        }
+        if (policy == null) {
+            throw new NullPointerException("policy");
+        }
+        if (policy == OverflowPolicy.QUEUE && queueLimit <= 0) {
+            throw new IllegalArgumentException("queueLimit: " + queueLimit + " (expected: > 0)");
+        }
+        this.maxInFlight = maxInFlight;
+        this.policy = policy;
+        this.queueLimit = queueLimit;
+        queue = policy == OverflowPolicy.QUEUE ? new ArrayDeque<>(Math.min(queueLimit, 1024)) : null;
+    }
+
+    /**
+     * Acquire a slot for a request.
+     *
+     * @param deferred request to queue if the window is full, required
+     *                 by {@link OverflowPolicy#QUEUE}
+     * @param timeout  longest time to block for {@link OverflowPolicy#BLOCK}
+     * @param unit     unit of the timeout
+     * @param canBlock false if the caller must not be blocked
+     * @return true if a slot was acquired, false if the request was queued
+     * @throws RequestRejectedException if the request was rejected
+     */
+    public synchronized boolean acquire(Deferred deferred, long timeout, TimeUnit unit, boolean canBlock) {
+        if (inFlight < maxInFlight) {
+            acquired();
+            return true;
+        }
+        switch (policy) {
+            case BLOCK:
+                if (canBlock && await(unit.toNanos(timeout))) {
+                    acquired();
+                    return true;
+                }
+                break;
+            case QUEUE:
+                if (deferred == null) {
+                    throw new NullPointerException("deferred");
+                }
+                if (queue.size() < queueLimit) {
+                    queue.add(deferred);
+                    queuedCount++;
+                    return false;
+                }
+                break;
+            default:
+                break;
+        }
+        rejectedCount++;
+        throw new RequestRejectedException("In-flight window full: " + maxInFlight);
+    }
+
+    /**
+     * Release a slot. If requests are queued, the slot is handed to the
+     * oldest one, which is sent from the calling thread.
+     */
+    public void release() {
+        Deferred next;
+        synchronized (this) {
+            next = queue != null ? queue.poll() : null;
+            if (next == null) {
+                inFlight--;
+                if (policy == OverflowPolicy.BLOCK) {
+                    notify();
+                }
+                return;
+            }
+            acquiredCount++;
+        }
+        next.run();
+    }
+
+    /**
+     * Fail all queued requests.
+     *
+     * @param cause reason the requests failed
+     */
+    public void failQueued(Throwable cause) {
+        failQueued(null, cause);
+    }
+
+    /**
+     * Fail the queued requests of one request pool, e.g. the pool of a
+     * connection which was closed while sharing this window with others.
+     *
+     * @param pool  pool whose requests are failed, or null for all
+     * @param cause reason the requests failed
+     */
+    public void failQueued(RequestPool pool, Throwable cause) {
+        if (queue == null) {
+            return;
+        }
+        List<Deferred> failed;
+        synchronized (this) {
+            if (pool == null) {
+                failed = new ArrayList<>(queue);
+                queue.clear();
+            } else {
+                failed = new ArrayList<>();
+                for (Iterator<Deferred> it = queue.iterator(); it.hasNext(); ) {
+                    Deferred deferred = it.next();
+                    if (deferred.getPool() == pool) {
+                        failed.add(deferred);
+                        it.remove();
+                    }
+                }
+            }
+        }
+        for (Deferred deferred : failed) {
+            deferred.fail(cause);
+        }
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public int getQueueLimit() {
+        return queueLimit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getPeakInFlight() {
+        return peakInFlight;
+    }
+
+    public synchronized int getQueued() {
+        return queue != null ? queue.size() : 0;
+    }
+
+    /**
+     * @return ratio of requests in flight to the window size
+     */
+    public synchronized double getUtilisation() {
+        return (double) inFlight / maxInFlight;
+    }
+
+    public synchronized long getAcquiredCount() {
+        return acquiredCount;
+    }
+
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public synchronized long getBlockedCount() {
+        return blockedCount;
+    }
+
+    public synchronized long getQueuedCount() {
+        return queuedCount;
+    }
+
+    private void acquired() {
+        inFlight++;
+        acquiredCount++;
+        if (inFlight > peakInFlight) {
+            peakInFlight = inFlight;
+        }
+    }
+
+    private boolean await(long timeoutNanos) {
+        blockedCount++;
+        long deadline = System.nanoTime() + timeoutNanos;
+        boolean interrupted = false;
+        try {
+            while (inFlight >= maxInFlight) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            return true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "InFlightWindow(in flight: " + inFlight + '/' + maxInFlight
+                + ", queued: " + getQueued() + ", rejected: " + rejectedCount + ')';
+    }
+}
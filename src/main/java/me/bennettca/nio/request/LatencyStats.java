@@ -0,0 +1,84 @@
+package me.bennettca.nio.request;
+
+import me.bennettca.nio.protocol.PacketRegistry;
+
+/**
+ * Round trip latencies of requests, overall and per request packet id.
+ */
+public final class LatencyStats {
+
+    private final LatencyHistogram total = new LatencyHistogram();
+    private volatile LatencyHistogram[] byPacketId = new LatencyHistogram[0];
+
+    /**
+     * Record the latency of a request.
+     *
+     * @param packetId id of the packet which was requested
+     * @param nanos    round trip time in nanoseconds
+     */
+    public void record(short packetId, long nanos) {
+        total.record(nanos);
+        LatencyHistogram histogram = histogram(packetId, true);
+        if (histogram != null) {
+            histogram.record(nanos);
+        }
+    }
+
+    public LatencyHistogram getTotal() {
+        return total;
+    }
+
+    /**
+     * Get the latencies of requests for a packet id.
+     *
+     * @param packetId id of the requested packet
+     * @return histogram of the packet id, or null if none were recorded
+     */
+    public LatencyHistogram getByPacketId(short packetId) {
+        return histogram(packetId, false);
+    }
+
+    public void reset() {
+        total.reset();
+        for (LatencyHistogram histogram : byPacketId) {
+            if (histogram != null) {
+                histogram.reset();
+            }
+        }
+    }
+
+    private LatencyHistogram histogram(short packetId, boolean create) {
+        int index = packetId + PacketRegistry.ID_OFFSET;
+        if (index < 0) {
+            return null;
+        }
+        LatencyHistogram[] histograms = byPacketId;
+        LatencyHistogram histogram = index < histograms.length ? histograms[index] : null;
+        if (histogram == null && create) {
+            histogram = createHistogram(index);
+        }
+        return histogram;
+    }
+
+    private synchronized LatencyHistogram createHistogram(int index) {
+        LatencyHistogram[] histograms = byPacketId;
+        if (index >= histograms.length) {
+            LatencyHistogram[] grown = new LatencyHistogram[Math.max(index + 1, histograms.length << 1)];
+            System.arraycopy(histograms, 0, grown, 0, histograms.length);
+            histograms = grown;
+        } else if (histograms[index] != null) {
+            return histograms[index];
+        } else {
+            histograms = histograms.clone();
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        histograms[index] = histogram;
+        byPacketId = histograms;
+        return histogram;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyStats(" + total + ')';
+    }
+}
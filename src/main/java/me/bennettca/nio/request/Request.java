@@ -3,4 +3,12 @@ package me.bennettca.nio.request;
 public interface Request {
 
     ResponseHandler getHandler();
+
+    /**
+     * Release this request once it has completed or failed. Pooled
+     * requests are returned to their pool and must not be used again.
+     */
+    default void release() {
+
+    }
 }
@@ -0,0 +1,18 @@
+package me.bennettca.nio.request;
+
+/**
+ * Thrown when a request timed out or its connection was lost
+ * before a response was received.
+ */
+public class RequestFailedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RequestFailedException(String message) {
+        super(message);
+    }
+
+    public RequestFailedException(Throwable cause) {
+        super(cause);
+    }
+}
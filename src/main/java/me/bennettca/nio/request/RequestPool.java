@@ -1,46 +1,572 @@
 package me.bennettca.nio.request;
 
-import io.netty.channel.EventLoop;
+import me.bennettca.nio.protocol.Idempotent;
+import me.bennettca.nio.protocol.Packet;
+import me.bennettca.nio.protocol.packet.OverloadedPacket;
+import me.bennettca.nio.protocol.packet.RequestPacket;
+import me.bennettca.nio.protocol.packet.ResponsePacket;
 
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Tracks outstanding requests by unique id until they are completed or
+ * time out. Requests are kept in an open addressed table keyed by the
+ * primitive id, and timeouts are handled by a hashed timing wheel which
+ * is advanced by a single task while requests are outstanding, instead
+ * of scheduling a separate task for every request.
+ */
 public abstract class RequestPool {
 
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+
+    private static final int WHEEL_SIZE = 512;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int NO_PACKET_ID = Integer.MIN_VALUE;
+
     private final AtomicLong nextId = new AtomicLong();
-    private final Map<Long, Request> requests = new ConcurrentHashMap<>();
+    private final long tickNanos;
+    private final long startTime = System.nanoTime();
+    private final Runnable tickTask = this::expireTimeouts;
+    private final LatencyStats latencyStats;
+
+    private final Entry[] wheel = new Entry[WHEEL_SIZE];
+    private long lastTick;
+    private boolean ticking;
+
+    private Entry[] table = new Entry[INITIAL_CAPACITY];
+    private int size;
+
+    private volatile InFlightWindow window;
+    private volatile long defaultTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIMEOUT_MILLIS);
+    private volatile boolean recycling;
+
+    public RequestPool() {
+        this(100, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Construct a request pool.
+     *
+     * @param tickDuration resolution of request timeouts
+     * @param unit         unit of the tick duration
+     */
+    public RequestPool(long tickDuration, TimeUnit unit) {
+        this(tickDuration, unit, new LatencyStats());
+    }
+
+    /**
+     * Construct a request pool recording latencies into shared stats,
+     * e.g. one pool per connection recording into the stats of a server.
+     *
+     * @param tickDuration resolution of request timeouts
+     * @param unit         unit of the tick duration
+     * @param latencyStats stats to record round trip times in
+     */
+    public RequestPool(long tickDuration, TimeUnit unit, LatencyStats latencyStats) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration: " + tickDuration + " (expected: > 0)");
+        }
+        if (latencyStats == null) {
+            throw new NullPointerException("latencyStats");
+        }
+        tickNanos = unit.toNanos(tickDuration);
+        this.latencyStats = latencyStats;
+    }
+
+    /**
+     * Schedule a task to be run after the given delay. Used to advance
+     * the timeout wheel while requests are outstanding.
+     */
+    protected abstract void schedule(Runnable task, long delay, TimeUnit unit);
 
-    protected abstract void schedule(Runnable task);
+    protected void requestFailed(ResponseHandler handler) {
+        handler.requestFailed();
+    }
 
-    protected void requestFailed(Request request) {
-        request.getHandler().requestFailed();
+    /**
+     * Create a request for the given handler, pooled if recycling is enabled.
+     *
+     * @param handler handler to be used
+     * @param timed   whether the round trip time should be measured
+     * @return new request
+     */
+    public Request newRequest(ResponseHandler handler, boolean timed) {
+        if (recycling) {
+            return timed ? TimedRequest.newInstance(handler) : DefaultRequest.newInstance(handler);
+        }
+        return timed ? new TimedRequest(handler) : new DefaultRequest(handler);
     }
 
-    public long track(Request request, EventLoop eventLoop) {
-        final long id = nextId.getAndIncrement();
-        requests.put(id, request);
-        schedule(() -> {
-            Request request1 = take(id);
-            if (request1 != null) {
-                requestFailed(request1);
+    public RequestPacket newRequestPacket(long uniqueId, Packet packet) {
+        return recycling ? RequestPacket.newInstance(uniqueId, packet) : new RequestPacket(uniqueId, packet);
+    }
+
+    public ResponsePacket newResponsePacket(long uniqueId, Packet packet) {
+        return recycling ? ResponsePacket.newInstance(uniqueId, packet) : new ResponsePacket(uniqueId, packet);
+    }
+
+    /**
+     * Track a request using the default timeout.
+     *
+     * @param request request to track
+     * @return unique id of the request
+     */
+    public long track(Request request) {
+        return track(request, defaultTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Track a request. The request fails if no response was
+     * received within the timeout.
+     *
+     * @param request request to track
+     * @param timeout time to wait for a response
+     * @param unit    unit of the timeout
+     * @return unique id of the request
+     */
+    public long track(Request request, long timeout, TimeUnit unit) {
+        return track(request, null, null, timeout, unit);
+    }
+
+    /**
+     * Track a request. The request fails if no response was received
+     * within the timeout. Its round trip time is recorded in the latency
+     * stats of this pool, by packet id if the packet is known, and in
+     * the given connection histogram.
+     *
+     * @param request           request to track
+     * @param packet            packet which was requested, or null
+     * @param connectionLatency histogram of the connection, or null
+     * @param timeout           time to wait for a response
+     * @param unit              unit of the timeout
+     * @return unique id of the request
+     */
+    public long track(Request request, Packet packet, LatencyHistogram connectionLatency,
+            long timeout, TimeUnit unit) {
+        if (request == null) {
+            throw new NullPointerException("request");
+        }
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout: " + timeout + " (expected: > 0)");
+        }
+        long id = nextId.getAndIncrement();
+        long now = System.nanoTime();
+        long deadline = now - startTime + unit.toNanos(timeout);
+        Entry entry = new Entry(id, request, (deadline + tickNanos - 1) / tickNanos, now,
+                packet != null ? packet.getId() : NO_PACKET_ID, connectionLatency,
+                packet instanceof Idempotent ? packet : null);
+        boolean startTicking;
+        synchronized (this) {
+            put(entry);
+            if (entry.deadlineTick <= lastTick) {
+                entry.deadlineTick = lastTick + 1;
             }
-        });
+            link(entry);
+            startTicking = !ticking;
+            ticking = true;
+        }
+        if (startTicking) {
+            schedule(tickTask, tickNanos, TimeUnit.NANOSECONDS);
+        }
         return id;
     }
 
     public Request take(long id) {
-        return requests.remove(id);
+        Entry entry = takeEntry(id);
+        return entry != null ? entry.request : null;
+    }
+
+    /**
+     * Complete the request a response belongs to. The response handler
+     * is called from the current thread, after which the response and
+     * request are released.
+     *
+     * @param resp response received from the remote host
+     * @return false if no request was being tracked for the response
+     */
+    public boolean complete(ResponsePacket resp) {
+        return complete(resp.getUniqueId(), resp.getPacket());
+    }
+
+    /**
+     * Complete a request with the contents of a response packet, so the
+     * packet itself can be recycled on the thread which decoded it.
+     *
+     * @param uniqueId unique id of the request
+     * @param packet   packet the remote host responded with
+     * @return false if no request was being tracked for the response
+     */
+    public boolean complete(long uniqueId, Packet packet) {
+        Entry entry = takeEntry(uniqueId);
+        if (entry == null) {
+            return false;
+        }
+        if (packet instanceof OverloadedPacket) {
+            rejected(entry.request);
+            return true;
+        }
+        long time = System.nanoTime() - entry.startNanos;
+        if (entry.packetId != NO_PACKET_ID) {
+            latencyStats.record((short) entry.packetId, time);
+        } else {
+            latencyStats.getTotal().record(time);
+        }
+        if (entry.connectionLatency != null) {
+            entry.connectionLatency.record(time);
+        }
+
+        Request request = entry.request;
+        Response response;
+        if (request instanceof TimedRequest) {
+            response = recycling ? TimedResponse.newInstance(packet, time)
+                    : new TimedResponse(packet, time, TimeUnit.NANOSECONDS);
+        } else {
+            response = recycling ? DefaultResponse.newInstance(packet)
+                    : new DefaultResponse(packet);
+        }
+        try {
+            request.getHandler().responseReceived(response);
+        } finally {
+            response.release();
+            request.release();
+        }
+        return true;
     }
 
     public void clear() {
-        Iterator<Entry<Long, Request>> itr = requests.entrySet().iterator();
-        while (itr.hasNext()) {
-            Entry<Long, Request> entry = itr.next();
-            entry.getValue().getHandler().requestFailed();
-            itr.remove();
+        List<Request> failed = new ArrayList<>();
+        synchronized (this) {
+            for (int i = 0; i < table.length; i++) {
+                Entry entry = table[i];
+                if (entry != null) {
+                    failed.add(entry.request);
+                    table[i] = null;
+                }
+            }
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                wheel[i] = null;
+            }
+            size = 0;
+        }
+        failAll(failed);
+    }
+
+    /**
+     * Fail all requests except requests for {@link Idempotent} packets,
+     * which keep their id and timeout so they can be resent with
+     * {@link #idempotentRequests()} once the connection is restored.
+     */
+    public void clearNonIdempotent() {
+        List<Request> failed = new ArrayList<>();
+        synchronized (this) {
+            List<Entry> removed = new ArrayList<>();
+            for (Entry entry : table) {
+                if (entry != null && entry.packet == null) {
+                    removed.add(entry);
+                }
+            }
+            for (Entry entry : removed) {
+                remove(entry.id);
+                unlink(entry);
+                failed.add(entry.request);
+            }
+        }
+        failAll(failed);
+    }
+
+    /**
+     * Create request packets for all outstanding requests for
+     * {@link Idempotent} packets, under their original ids.
+     *
+     * @return request packets to resend
+     */
+    public synchronized List<RequestPacket> idempotentRequests() {
+        List<Entry> entries = new ArrayList<>();
+        for (Entry entry : table) {
+            if (entry != null && entry.packet != null) {
+                entries.add(entry);
+            }
+        }
+        // Resend in the order the requests were first sent.
+        entries.sort((a, b) -> Long.compare(a.id, b.id));
+        List<RequestPacket> packets = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            packets.add(newRequestPacket(entry.id, entry.packet));
+        }
+        return packets;
+    }
+
+    private void failAll(List<Request> failed) {
+        InFlightWindow window = this.window;
+        if (window != null) {
+            window.failQueued(this, new RequestFailedException("Request pool cleared"));
+        }
+        for (Request request : failed) {
+            releaseSlot();
+            request.getHandler().requestFailed();
+            request.release();
+        }
+    }
+
+    /**
+     * @return number of requests awaiting a response
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public long getDefaultTimeoutMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(defaultTimeoutNanos);
+    }
+
+    public long getDefaultTimeoutNanos() {
+        return defaultTimeoutNanos;
+    }
+
+    /**
+     * Set the timeout used for requests which do not specify one.
+     *
+     * @param timeout time to wait for a response
+     * @param unit    unit of the timeout
+     */
+    public void setDefaultTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout: " + timeout + " (expected: > 0)");
+        }
+        defaultTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * @return round trip times of requests completed through this pool
+     */
+    public LatencyStats getLatencyStats() {
+        return latencyStats;
+    }
+
+    public InFlightWindow getWindow() {
+        return window;
+    }
+
+    /**
+     * Limit the number of requests awaiting a response. The window is
+     * consulted by connections before tracking a request, and a slot is
+     * released whenever a tracked request completes, times out or is cleared.
+     *
+     * @param window window to use, or null for no limit
+     */
+    public void setWindow(InFlightWindow window) {
+        this.window = window;
+    }
+
+    public boolean isRecycling() {
+        return recycling;
+    }
+
+    /**
+     * Reuse request and response envelopes instead of allocating new
+     * ones for every round trip. Objects are pooled per thread and are
+     * only reused when released on the thread which created them:
+     * responses are created and released on the thread which completes
+     * the request, while requests and outbound packets are only reused
+     * when created on the thread which completes or encodes them, e.g.
+     * requests made from the io thread or from a handler running on it.
+     *
+     * @param recycling whether to pool request and response objects
+     */
+    public void setRecycling(boolean recycling) {
+        this.recycling = recycling;
+    }
+
+    private void expireTimeouts() {
+        List<Entry> expired = null;
+        boolean reschedule;
+        synchronized (this) {
+            long tick = (System.nanoTime() - startTime) / tickNanos;
+            long ticks = Math.min(tick - lastTick, WHEEL_SIZE);
+            for (long t = tick - ticks + 1; t <= tick; t++) {
+                Entry entry = wheel[(int) (t & (WHEEL_SIZE - 1))];
+                while (entry != null) {
+                    Entry next = entry.next;
+                    if (entry.deadlineTick <= tick) {
+                        remove(entry.id);
+                        unlink(entry);
+                        if (expired == null) {
+                            expired = new ArrayList<>();
+                        }
+                        expired.add(entry);
+                    }
+                    entry = next;
+                }
+            }
+            lastTick = Math.max(lastTick, tick);
+            reschedule = ticking = size > 0;
+        }
+        if (reschedule) {
+            schedule(tickTask, tickNanos, TimeUnit.NANOSECONDS);
+        }
+        if (expired != null) {
+            for (Entry entry : expired) {
+                releaseSlot();
+                ResponseHandler handler = entry.request.getHandler();
+                entry.request.release();
+                requestFailed(handler);
+            }
+        }
+    }
+
+    private Entry takeEntry(long id) {
+        Entry entry;
+        synchronized (this) {
+            entry = remove(id);
+            if (entry == null) {
+                return null;
+            }
+            unlink(entry);
+        }
+        releaseSlot();
+        return entry;
+    }
+
+    /**
+     * Fail a request the remote host rejected because it is overloaded.
+     */
+    private static void rejected(Request request) {
+        try {
+            ResponseHandler handler = request.getHandler();
+            if (handler instanceof FutureResponseHandler) {
+                ((FutureResponseHandler) handler).fail(new RequestRejectedException("Remote host overloaded"));
+            } else {
+                handler.requestFailed();
+            }
+        } finally {
+            request.release();
+        }
+    }
+
+    private void releaseSlot() {
+        InFlightWindow window = this.window;
+        if (window != null) {
+            window.release();
+        }
+    }
+
+    private void link(Entry entry) {
+        int bucket = (int) (entry.deadlineTick & (WHEEL_SIZE - 1));
+        Entry head = wheel[bucket];
+        entry.prev = null;
+        entry.next = head;
+        if (head != null) {
+            head.prev = entry;
+        }
+        wheel[bucket] = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            int bucket = (int) (entry.deadlineTick & (WHEEL_SIZE - 1));
+            if (wheel[bucket] == entry) {
+                wheel[bucket] = entry.next;
+            }
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    private void put(Entry entry) {
+        if ((size + 1) * 4 > table.length * 3) {
+            rehash(table.length << 1);
+        }
+        Entry[] table = this.table;
+        int mask = table.length - 1;
+        int i = index(entry.id, mask);
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = entry;
+        size++;
+    }
+
+    private Entry remove(long id) {
+        Entry[] table = this.table;
+        int mask = table.length - 1;
+        int i = index(id, mask);
+        Entry entry;
+        while ((entry = table[i]) != null) {
+            if (entry.id == id) {
+                table[i] = null;
+                size--;
+                shiftBack(i);
+                return entry;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Close the gap left by a removed entry so that linear probing
+     * still finds every entry which was displaced past it.
+     */
+    private void shiftBack(int gap) {
+        Entry[] table = this.table;
+        int mask = table.length - 1;
+        int i = (gap + 1) & mask;
+        Entry entry;
+        while ((entry = table[i]) != null) {
+            int home = index(entry.id, mask);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                table[gap] = entry;
+                table[i] = null;
+                gap = i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void rehash(int capacity) {
+        Entry[] old = table;
+        table = new Entry[capacity];
+        size = 0;
+        for (Entry entry : old) {
+            if (entry != null) {
+                put(entry);
+            }
+        }
+    }
+
+    private static int index(long id, int mask) {
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static final class Entry {
+
+        final long id;
+        final Request request;
+        final long startNanos;
+        final int packetId;
+        final LatencyHistogram connectionLatency;
+        final Packet packet;
+        long deadlineTick;
+        Entry prev, next;
+
+        Entry(long id, Request request, long deadlineTick, long startNanos,
+                int packetId, LatencyHistogram connectionLatency, Packet packet) {
+            this.id = id;
+            this.request = request;
+            this.deadlineTick = deadlineTick;
+            this.startNanos = startNanos;
+            this.packetId = packetId;
+            this.connectionLatency = connectionLatency;
+            this.packet = packet;
         }
     }
 }
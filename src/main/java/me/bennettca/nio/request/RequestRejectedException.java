@@ -0,0 +1,15 @@
+package me.bennettca.nio.request;
+
+/**
+ * Thrown when a request could not be sent because too many
+ * requests are already awaiting a response, or when the remote
+ * host rejected it because it is overloaded.
+ */
+public class RequestRejectedException extends RequestFailedException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RequestRejectedException(String message) {
+        super(message);
+    }
+}
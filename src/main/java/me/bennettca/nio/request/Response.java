@@ -2,7 +2,24 @@ package me.bennettca.nio.request;
 
 import me.bennettca.nio.protocol.Packet;
 
+/**
+ * Response to a request. A response is owned by the connection which
+ * received it and is released as soon as
+ * {@link ResponseHandler#responseReceived(Response)} returns. When
+ * recycling is enabled the instance is reused for a later response,
+ * so handlers must not keep a reference to it past the callback.
+ * The packet returned by {@link #getPacket()} is never recycled and
+ * may be kept.
+ */
 public interface Response {
 
     Packet getPacket();
+
+    /**
+     * Release this response. Called by the connection after the
+     * response handler returns.
+     */
+    default void release() {
+
+    }
 }
@@ -1,21 +1,72 @@
 package me.bennettca.nio.request;
 
+import io.netty.util.Recycler;
+import io.netty.util.Recycler.Handle;
+
+/**
+ * Request whose round trip time is reported in a {@link TimedResponse}.
+ * The time is measured by the {@link RequestPool} tracking the request.
+ */
 public class TimedRequest implements Request {
 
-    private final ResponseHandler handler;
-    private final long start;
+    private static final Recycler<TimedRequest> RECYCLER = new Recycler<TimedRequest>() {
+        @Override
+        protected TimedRequest newObject(Handle<TimedRequest> handle) {
+            return new TimedRequest(handle);
+        }
+    };
+
+    private final Handle<TimedRequest> recyclerHandle;
+    private ResponseHandler handler;
+    private long start;
 
     public TimedRequest(ResponseHandler handler) {
         this.handler = handler;
+        recyclerHandle = null;
         start = System.currentTimeMillis();
     }
 
+    private TimedRequest(Handle<TimedRequest> recyclerHandle) {
+        this.recyclerHandle = recyclerHandle;
+    }
+
+    /**
+     * Get a pooled request. Pools are per thread and this netty version
+     * drops objects released on another thread, so a request is only
+     * reused if it is completed on the thread which created it, e.g. a
+     * request made from the io thread. Requests made from application
+     * threads are allocated every time.
+     *
+     * @param handler handler to be used
+     * @return pooled request, returned to the pool on {@link #release()}
+     */
+    public static TimedRequest newInstance(ResponseHandler handler) {
+        TimedRequest request = RECYCLER.get();
+        request.handler = handler;
+        request.start = System.currentTimeMillis();
+        return request;
+    }
+
     @Override
     public ResponseHandler getHandler() {
         return handler;
     }
 
+    /**
+     * @return wall clock time the request was created, in milliseconds
+     * @deprecated round trip times are measured by the {@link RequestPool}
+     * and reported by {@link TimedResponse}
+     */
+    @Deprecated
     public long getStartTime() {
         return start;
     }
+
+    @Override
+    public void release() {
+        if (recyclerHandle != null) {
+            handler = null;
+            recyclerHandle.recycle(this);
+        }
+    }
 }
@@ -1,15 +1,52 @@
 package me.bennettca.nio.request;
 
+import io.netty.util.Recycler;
+import io.netty.util.Recycler.Handle;
 import me.bennettca.nio.protocol.Packet;
 
+import java.util.concurrent.TimeUnit;
+
 public class TimedResponse implements Response {
 
-    private final Packet packet;
-    private final long timeCompleted;
+    private static final Recycler<TimedResponse> RECYCLER = new Recycler<TimedResponse>() {
+        @Override
+        protected TimedResponse newObject(Handle<TimedResponse> handle) {
+            return new TimedResponse(handle);
+        }
+    };
+
+    private final Handle<TimedResponse> recyclerHandle;
+    private Packet packet;
+    private long timeCompletedNanos;
 
     public TimedResponse(Packet packet, long timeCompleted) {
+        this(packet, timeCompleted, TimeUnit.MILLISECONDS);
+    }
+
+    public TimedResponse(Packet packet, long timeCompleted, TimeUnit unit) {
         this.packet = packet;
-        this.timeCompleted = timeCompleted;
+        timeCompletedNanos = unit.toNanos(timeCompleted);
+        recyclerHandle = null;
+    }
+
+    private TimedResponse(Handle<TimedResponse> recyclerHandle) {
+        this.recyclerHandle = recyclerHandle;
+    }
+
+    /**
+     * Get a pooled response. It is only reused if released on the
+     * thread which created it, objects released on another thread are
+     * dropped by the pool.
+     *
+     * @param packet             response packet
+     * @param timeCompletedNanos round trip time of the request in nanoseconds
+     * @return pooled response, returned to the pool on {@link #release()}
+     */
+    public static TimedResponse newInstance(Packet packet, long timeCompletedNanos) {
+        TimedResponse response = RECYCLER.get();
+        response.packet = packet;
+        response.timeCompletedNanos = timeCompletedNanos;
+        return response;
     }
 
     @Override
@@ -17,7 +54,26 @@ public class TimedResponse implements Response {
         return packet;
     }
 
+    /**
+     * @return round trip time of the request in milliseconds
+     */
     public long getTimeCompleted() {
-        return timeCompleted;
+        return TimeUnit.NANOSECONDS.toMillis(timeCompletedNanos);
+    }
+
+    /**
+     * @return round trip time of the request in nanoseconds
+     */
+    public long getTimeCompletedNanos() {
+        return timeCompletedNanos;
+    }
+
+    @Override
+    public void release() {
+        if (recyclerHandle != null) {
+            packet = null;
+            timeCompletedNanos = 0;
+            recyclerHandle.recycle(this);
+        }
     }
 }
@@ -0,0 +1,319 @@
+package me.bennettca.nio.server;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits which connections a server accepts. Accepted sockets are checked
+ * on the boss thread before a pipeline or {@link ClientListener} is
+ * created for them, and are rejected by closing the socket right away.
+ * <p>
+ * Connections are limited in total and per remote address. Accepts can
+ * also be rate limited by a token bucket: sockets accepted while the
+ * bucket is empty are queued and admitted as tokens refill, up to a queue
+ * limit beyond which they are rejected. This keeps a server responsive
+ * when thousands of clients reconnect at once.
+ */
+public final class AdmissionControl {
+
+    private final int maxConnections;
+    private final int maxPerAddress;
+    private final int acceptsPerSecond;
+    private final int burst;
+    private final int queueLimit;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final ConcurrentHashMap<InetAddress, AtomicInteger> perAddress = new ConcurrentHashMap<>();
+
+    private final LongAdder acceptedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder queuedCount = new LongAdder();
+
+    /**
+     * Construct admission control without an accept rate limit.
+     *
+     * @param maxConnections maximum number of connected clients, or 0 for no limit
+     * @param maxPerAddress  maximum number of clients per remote address, or 0 for no limit
+     */
+    public AdmissionControl(int maxConnections, int maxPerAddress) {
+        this(maxConnections, maxPerAddress, 0, 0, 0);
+    }
+
+    /**
+     * Construct admission control.
+     *
+     * @param maxConnections   maximum number of connected clients, or 0 for no limit
+     * @param maxPerAddress    maximum number of clients per remote address, or 0 for no limit
+     * @param acceptsPerSecond sustained rate of accepted connections, or 0 for no limit
+     * @param burst            number of connections which may be accepted at once
+     * @param queueLimit       maximum number of connections waiting to be admitted
+     */
+    public AdmissionControl(int maxConnections, int maxPerAddress,
+            int acceptsPerSecond, int burst, int queueLimit) {
+        if (maxConnections < 0) {
+            throw new IllegalArgumentException("maxConnections: " + maxConnections + " (expected: >= 0)");
+        }
+        if (maxPerAddress < 0) {
+            throw new IllegalArgumentException("maxPerAddress: " + maxPerAddress + " (expected: >= 0)");
+        }
+        if (acceptsPerSecond < 0) {
+            throw new IllegalArgumentException("acceptsPerSecond: " + acceptsPerSecond + " (expected: >= 0)");
+        }
+        if (acceptsPerSecond > 0 && burst <= 0) {
+            throw new IllegalArgumentException("burst: " + burst + " (expected: > 0)");
+        }
+        if (queueLimit < 0) {
+            throw new IllegalArgumentException("queueLimit: " + queueLimit + " (expected: >= 0)");
+        }
+        this.maxConnections = maxConnections;
+        this.maxPerAddress = maxPerAddress;
+        this.acceptsPerSecond = acceptsPerSecond;
+        this.burst = burst;
+        this.queueLimit = queueLimit;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaxPerAddress() {
+        return maxPerAddress;
+    }
+
+    public int getAcceptsPerSecond() {
+        return acceptsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public int getQueueLimit() {
+        return queueLimit;
+    }
+
+    /**
+     * @return number of admitted connections which are still open
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    public long getAcceptedCount() {
+        return acceptedCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * @return number of connections which had to wait for the accept rate
+     */
+    public long getQueuedCount() {
+        return queuedCount.sum();
+    }
+
+    /**
+     * Release the slot of an admitted connection once it is closed.
+     */
+    private void release(Channel channel) {
+        connections.decrementAndGet();
+        if (maxPerAddress > 0) {
+            InetAddress address = address(channel);
+            AtomicInteger count = perAddress.get(address);
+            if (count != null && count.decrementAndGet() <= 0) {
+                perAddress.remove(address, count);
+            }
+        }
+    }
+
+    /**
+     * Reserve a slot for a connection.
+     *
+     * @return false if a connection limit was reached
+     */
+    private boolean tryAdmit(Channel channel) {
+        if (maxConnections > 0 && connections.get() >= maxConnections) {
+            return false;
+        }
+        if (maxPerAddress > 0) {
+            InetAddress address = address(channel);
+            AtomicInteger count = perAddress.computeIfAbsent(address, a -> new AtomicInteger());
+            if (count.incrementAndGet() > maxPerAddress) {
+                count.decrementAndGet();
+                return false;
+            }
+        }
+        connections.incrementAndGet();
+        channel.closeFuture().addListener(future -> release(channel));
+        acceptedCount.increment();
+        return true;
+    }
+
+    private void reject(Channel channel) {
+        rejectedCount.increment();
+        channel.unsafe().closeForcibly();
+    }
+
+    private static InetAddress address(Channel channel) {
+        InetSocketAddress remote = (InetSocketAddress) channel.remoteAddress();
+        return remote != null ? remote.getAddress() : null;
+    }
+
+    @Override
+    public String toString() {
+        return "AdmissionControl(connections: " + getConnections()
+                + (maxConnections > 0 ? "/" + maxConnections : "")
+                + ", accepted: " + getAcceptedCount()
+                + ", rejected: " + getRejectedCount()
+                + ", queued: " + getQueuedCount() + ')';
+    }
+
+    /**
+     * Handler of the server channel, run on the boss thread, which sees
+     * accepted sockets before they are registered with a worker.
+     */
+    static final class AdmissionHandler extends ChannelHandlerAdapter {
+
+        private final DataServer server;
+        private final ArrayDeque<Channel> queue = new ArrayDeque<>();
+
+        private AdmissionControl queueOwner;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+        private boolean drainScheduled;
+
+        AdmissionHandler(DataServer server) {
+            this.server = server;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            AdmissionControl control = server.getAdmissionControl();
+            if (control == null || !(msg instanceof Channel)) {
+                ctx.fireChannelRead(msg);
+                return;
+            }
+            if (control != queueOwner) {
+                replaced(ctx, control);
+            }
+            Channel child = (Channel) msg;
+            if (!queue.isEmpty()) {
+                enqueue(ctx, control, child);
+            } else {
+                admit(ctx, control, child);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            Channel child;
+            while ((child = queue.poll()) != null) {
+                child.unsafe().closeForcibly();
+            }
+            ctx.fireChannelInactive();
+        }
+
+        private void admit(ChannelHandlerContext ctx, AdmissionControl control, Channel child) {
+            if (control.acceptsPerSecond > 0 && !takeToken(control)) {
+                enqueue(ctx, control, child);
+                return;
+            }
+            if (control.tryAdmit(child)) {
+                ctx.fireChannelRead(child);
+            } else {
+                control.reject(child);
+            }
+        }
+
+        private void enqueue(ChannelHandlerContext ctx, AdmissionControl control, Channel child) {
+            if (queue.size() >= control.queueLimit) {
+                control.reject(child);
+                return;
+            }
+            queue.add(child);
+            control.queuedCount.increment();
+            scheduleDrain(ctx, control);
+        }
+
+        private void scheduleDrain(ChannelHandlerContext ctx, AdmissionControl control) {
+            if (drainScheduled) {
+                return;
+            }
+            drainScheduled = true;
+            long delay = (long) Math.ceil((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / control.acceptsPerSecond);
+            ctx.executor().schedule(() -> {
+                drainScheduled = false;
+                drain(ctx);
+            }, Math.max(delay, 1), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Start over with a full bucket after admission control was
+         * replaced. Queued connections are admitted again under the new
+         * limits, or accepted if admission control was removed.
+         */
+        private void replaced(ChannelHandlerContext ctx, AdmissionControl control) {
+            queueOwner = control;
+            if (control != null) {
+                tokens = control.burst;
+                lastRefill = System.nanoTime();
+            }
+            Channel[] queued = queue.toArray(new Channel[queue.size()]);
+            queue.clear();
+            for (Channel child : queued) {
+                if (control == null) {
+                    ctx.fireChannelRead(child);
+                } else if (!queue.isEmpty()) {
+                    enqueue(ctx, control, child);
+                } else {
+                    admit(ctx, control, child);
+                }
+            }
+        }
+
+        /**
+         * Admit queued connections while tokens are available.
+         */
+        private void drain(ChannelHandlerContext ctx) {
+            AdmissionControl control = server.getAdmissionControl();
+            if (control != queueOwner) {
+                replaced(ctx, control);
+                return;
+            }
+            while (!queue.isEmpty() && takeToken(control)) {
+                Channel child = queue.poll();
+                if (control.tryAdmit(child)) {
+                    ctx.fireChannelRead(child);
+                } else {
+                    control.reject(child);
+                }
+            }
+            if (!queue.isEmpty()) {
+                scheduleDrain(ctx, control);
+            }
+        }
+
+        private boolean takeToken(AdmissionControl control) {
+            long now = System.nanoTime();
+            tokens = Math.min(control.burst, tokens
+                    + (now - lastRefill) * control.acceptsPerSecond / (double) TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
@@ -1,39 +1,156 @@
 package me.bennettca.nio.server;
 
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelFuture;
+import io.netty.util.AttributeKey;
 import me.bennettca.nio.AbstractConnection;
+import me.bennettca.nio.channel.ConflatingQueue;
+import me.bennettca.nio.protocol.Conflatable;
 import me.bennettca.nio.protocol.Packet;
 import me.bennettca.nio.protocol.PacketRegistry;
-import me.bennettca.nio.protocol.packet.RequestPacket;
-import me.bennettca.nio.request.DefaultRequest;
-import me.bennettca.nio.request.Request;
-import me.bennettca.nio.request.ResponseHandler;
-import me.bennettca.nio.request.TimedRequest;
+import me.bennettca.nio.request.LatencyHistogram;
+import me.bennettca.nio.request.RequestPool;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public final class ClientListener extends AbstractConnection {
 
+    /**
+     * Channel attribute holding the pool tracking requests sent to the client.
+     */
+    public static final AttributeKey<RequestPool> REQUEST_POOL = AttributeKey.valueOf("requestPool");
+
     private final DataServer server;
+    final Executor executor;
+    private final RequestPool requestPool;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private volatile ConflatingQueue conflatingQueue;
+
+    private volatile boolean disconnected;
 
-    ClientListener(DataServer server, Channel channel) {
+    final QueueDelay queueDelay = new QueueDelay();
+    volatile boolean readPaused;
+    final AtomicBoolean probing = new AtomicBoolean();
+    volatile long received;
+    long receivedAtProbe;
+    volatile long inboundRate;
+
+    ClientListener(DataServer server, Channel channel, Executor executor, RequestPool requestPool) {
         this.server = server;
         this.channel = channel;
+        this.executor = executor;
+        this.requestPool = requestPool;
+    }
+
+    @Override
+    public PacketRegistry getPacketRegistry() {
+        return server.getPacketRegistry();
+    }
+
+    @Override
+    protected RequestPool getRequestPool() {
+        return requestPool;
+    }
+
+    @Override
+    protected LatencyHistogram getLatencyHistogram() {
+        return latency;
+    }
+
+    /**
+     * @return round trip times of requests sent to this client
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Get the time the last packet of this client waited before its
+     * handlers ran. Only measured while load shedding is enabled.
+     *
+     * @return queue delay in nanoseconds
+     */
+    public long getQueueDelayNanos() {
+        return queueDelay.last();
     }
 
+    /**
+     * Responses of any client may be completed by any io or handler
+     * thread of the server, so none of them may block.
+     */
     @Override
-    public ChannelFuture request(Packet packet,
-            ResponseHandler handler, boolean timed) {
+    protected boolean canBlock() {
+        return !server.inServerThread();
+    }
+
+    /**
+     * Send a state update which only needs to arrive if no newer update
+     * with the same conflation key is pending.
+     *
+     * @param packet packet implementing {@link Conflatable}
+     * @see #sendConflated(Object, Packet)
+     */
+    public void sendConflated(Packet packet) {
+        if (!(packet instanceof Conflatable)) {
+            throw new IllegalArgumentException("Packet is not conflatable: " + packet);
+        }
+        sendConflated(((Conflatable) packet).getConflationKey(), packet);
+    }
+
+    /**
+     * Send a state update through the conflating queue of this client.
+     * A pending packet with the same key which has not been written yet
+     * is replaced, so a slow client only receives the newest state.
+     *
+     * @param key    conflation key
+     * @param packet packet to send
+     */
+    public void sendConflated(Object key, Packet packet) {
         getPacketRegistry().validate(packet);
-        if (handler == null) {
-            throw new NullPointerException("handler");
+        if (!isActive()) {
+            throw new IllegalStateException("channel inactive");
+        }
+        ConflatingQueue queue = conflatingQueue;
+        if (queue == null) {
+            synchronized (this) {
+                queue = conflatingQueue;
+                if (queue == null) {
+                    conflatingQueue = queue = new ConflatingQueue(channel);
+                }
+            }
         }
-        Request request = timed ? new TimedRequest(handler) : new DefaultRequest(handler);
-        return send(new RequestPacket(server.requestPool.track(request, channel.eventLoop()), packet));
+        queue.offer(key, packet);
     }
 
-    @Override
-    public PacketRegistry getPacketRegistry() {
-        return server.getPacketRegistry();
+    /**
+     * @return conflating queue of this client, or null if no conflated
+     * packet was sent yet
+     */
+    public ConflatingQueue getConflatingQueue() {
+        return conflatingQueue;
+    }
+
+    void writabilityChanged(boolean writable) {
+        ConflatingQueue queue = conflatingQueue;
+        if (queue != null && writable) {
+            queue.resume();
+        }
+    }
+
+    /**
+     * @return true once the server removed this client, after which it
+     * cannot be subscribed to topics
+     */
+    public boolean isDisconnected() {
+        return disconnected;
+    }
+
+    void disconnected() {
+        disconnected = true;
+        ConflatingQueue queue = conflatingQueue;
+        if (queue != null) {
+            queue.clear();
+        }
     }
 
     public DataServer getParent() {
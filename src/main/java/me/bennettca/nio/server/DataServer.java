@@ -12,67 +12,111 @@ import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.UnsupportedMessageTypeException;
 import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.util.concurrent.DefaultEventExecutor;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
 import io.netty.util.concurrent.SingleThreadEventExecutor;
 import me.bennettca.nio.EventHandler;
+import me.bennettca.nio.PacketDispatcher;
+import me.bennettca.nio.channel.FlushCoalescingHandler;
+import me.bennettca.nio.channel.FlushPolicy;
+import me.bennettca.nio.channel.SlowConsumerHandler;
+import me.bennettca.nio.channel.SlowConsumerPolicy;
+import me.bennettca.nio.channel.WriteBufferWaterMark;
 import me.bennettca.nio.protocol.Packet;
 import me.bennettca.nio.protocol.PacketRegistry;
 import me.bennettca.nio.protocol.codec.Decoder;
+import me.bennettca.nio.protocol.codec.EncodedFrame;
 import me.bennettca.nio.protocol.codec.Encoder;
+import me.bennettca.nio.protocol.packet.GoAwayPacket;
+import me.bennettca.nio.protocol.packet.ByteBufPacket;
 import me.bennettca.nio.protocol.packet.KeepAlivePacket;
+import me.bennettca.nio.protocol.packet.OverloadedPacket;
 import me.bennettca.nio.protocol.packet.RequestPacket;
 import me.bennettca.nio.protocol.packet.ResponsePacket;
+import me.bennettca.nio.protocol.stream.ChunkedFilePacket;
 import me.bennettca.nio.request.*;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 public abstract class DataServer {
 
+    private static final long DRAIN_POLL_MILLIS = 10;
+    private static final long LOAD_PROBE_MILLIS = 100;
+
     private final Map<ChannelId, ClientListener> clients;
     private final Collection<ClientListener> clientsView;
 
     private final PacketRegistry registry = new PacketRegistry();
     private final Set<EventHandler> handlers;
-    final RequestPool requestPool;
+    private volatile ServerEventHandler[] serverHandlers = new ServerEventHandler[0];
+    private final PacketDispatcher<ClientListener> dispatcher = new PacketDispatcher<>(registry);
+    private final TopicRegistry topics = new TopicRegistry();
+    private final LatencyStats latencyStats = new LatencyStats();
+    private volatile long requestTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(RequestPool.DEFAULT_TIMEOUT_MILLIS);
+    private volatile InFlightWindow inFlightWindow;
+    private volatile boolean recycling;
 
     private final ChannelGroup channelGroup;
     private final ServerBootstrap bootstrap;
     private final SingleThreadEventExecutor executor;
+    private final DispatchStrategy dispatchStrategy;
     private final NioEventLoopGroup bossGroup, workerGroup;
 
     private ServerFutureListener future;
+    private volatile FlushPolicy flushPolicy;
+    private volatile WriteBufferWaterMark writeBufferWaterMark;
+    private volatile SlowConsumerPolicy slowConsumerPolicy;
+    private volatile long idleTimeoutNanos;
+    private volatile long keepAliveIntervalNanos;
+    private volatile AdmissionControl admissionControl;
+    private volatile LoadShedding loadShedding;
+    private final AtomicBoolean probingLoad = new AtomicBoolean();
+    private final Set<ClientListener> pausedClients = ConcurrentHashMap.newKeySet();
+    private volatile long pauseRateCutoff = Long.MAX_VALUE;
+    private final LongAdder reapedCount = new LongAdder();
+    private final LongAdder keepAlivesSent = new LongAdder();
+    private volatile boolean draining;
+    private volatile long drainDeadlineNanos;
+    private final LongAdder drainedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder droppedRequests = new LongAdder();
     private Channel serverChannel;
     private InetSocketAddress addr;
     private boolean closed;
 
     DataServer(Class<? extends ServerChannel> channelClass,
             NioEventLoopGroup bossGroup, NioEventLoopGroup workerGroup,
-            ServerFutureListener future) {
+            ServerFutureListener future, DispatchStrategy dispatchStrategy) {
+        if (dispatchStrategy == null) {
+            throw new NullPointerException("dispatchStrategy");
+        }
         clients = new ConcurrentHashMap<>();
         clientsView = Collections.unmodifiableCollection(clients.values());
 
         this.bossGroup = bossGroup;
         this.workerGroup = workerGroup;
         this.future = future;
+        this.dispatchStrategy = dispatchStrategy;
 
         handlers = new LinkedHashSet<>(1);
         executor = new DefaultEventExecutor();
         channelGroup = new DefaultChannelGroup(executor);
-        requestPool = new RequestPool() {
-            @Override
-            protected void schedule(Runnable task) {
-                DataServer.this.workerGroup.schedule(task, 10, TimeUnit.SECONDS);
-            }
-
-            @Override
-            protected void requestFailed(final Request request) {
-                executor.execute(() -> request.getHandler().requestFailed());
-            }
-        };
 
         bootstrap = new ServerBootstrap()
                 .group(bossGroup, workerGroup)
@@ -81,14 +125,33 @@ public abstract class DataServer {
                 .option(ChannelOption.SO_KEEPALIVE, true)
                 .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
                 .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .handler(new AdmissionControl.AdmissionHandler(this))
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     public void initChannel(SocketChannel ch) throws Exception {
+                        long idleTimeout = idleTimeoutNanos;
+                        long keepAliveInterval = keepAliveIntervalNanos;
+                        if (idleTimeout > 0 || keepAliveInterval > 0) {
+                            ch.pipeline().addLast(new IdleStateHandler(idleTimeout,
+                                    keepAliveInterval, 0, TimeUnit.NANOSECONDS));
+                        }
                         ch.pipeline().addLast(
                                 new ChunkedWriteHandler(),
-                                new Decoder(registry),
-                                Encoder.INSTANCE);
-                        ch.pipeline().addLast(executor, new ServerHandler());
+                                new Decoder(registry, recycling));
+                        FlushPolicy policy = flushPolicy;
+                        if (policy != null) {
+                            ch.pipeline().addLast(new FlushCoalescingHandler(policy));
+                        }
+                        ch.pipeline().addLast(Encoder.INSTANCE);
+                        WriteBufferWaterMark waterMark = writeBufferWaterMark;
+                        if (waterMark != null) {
+                            waterMark.apply(ch.config());
+                        }
+                        SlowConsumerPolicy slowConsumer = slowConsumerPolicy;
+                        if (slowConsumer != null) {
+                            ch.pipeline().addLast(new SlowConsumerHandler(slowConsumer));
+                        }
+                        ch.pipeline().addLast(new ServerHandler());
                     }
                 });
     }
@@ -129,65 +192,291 @@ public abstract class DataServer {
             throw new IllegalStateException("Server has already been closed");
         }
         channelGroup.close();
-        requestPool.clear();
         serverChannel.close();
-        addr = null;
-        bossGroup.shutdownGracefully();
-        workerGroup.shutdownGracefully();
-        executor.shutdownGracefully();
         closed = true;
+        terminate();
+    }
+
+    /**
+     * Close the server gracefully. New connections are refused and every
+     * client is sent a {@link GoAwayPacket}. Each client is closed once
+     * all requests sent to it were answered and all packets queued for it
+     * were flushed. Clients which have not drained by the deadline are
+     * closed, failing their outstanding requests.
+     *
+     * @param timeout time to wait for clients to drain
+     * @param unit    unit of the timeout
+     * @return future completed once all clients are closed
+     */
+    public Future<Void> close(long timeout, TimeUnit unit) {
+        if (closed) {
+            throw new IllegalStateException("Server has already been closed");
+        }
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout: " + timeout + " (expected: >= 0)");
+        }
+        closed = true;
+        drainDeadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+        draining = true;
+        serverChannel.close();
+
+        // Not owned by the server executor, which is shut down before it completes.
+        Promise<Void> promise = GlobalEventExecutor.INSTANCE.newPromise();
+        sendAll(new GoAwayPacket(unit.toMillis(timeout)));
+        Set<ClientListener> flushing = Collections.newSetFromMap(new IdentityHashMap<>());
+        executor.execute(() -> drain(flushing, promise));
+        return promise;
+    }
+
+    /**
+     * Close every client which has drained, runs on the server executor
+     * until no clients are left or the deadline passed. The promise is
+     * completed once the remaining clients are closed and the server
+     * terminated.
+     */
+    private void drain(Set<ClientListener> flushing, Promise<Void> promise) {
+        boolean expired = System.nanoTime() - drainDeadlineNanos >= 0;
+        List<ChannelFuture> closing = new ArrayList<>();
+        for (ClientListener client : clients.values()) {
+            Channel channel = client.getChannel();
+            if (expired) {
+                if (flushing.add(client)) {
+                    droppedCount.increment();
+                }
+                droppedRequests.add(client.getRequestPool().size());
+                closing.add(channel.close());
+            } else if (!flushing.contains(client) && client.getRequestPool().size() == 0) {
+                flushing.add(client);
+                // Queued behind any responses the handlers are about to write,
+                // and completed only once everything before it was flushed.
+                client.executor.execute(() -> channel
+                        .writeAndFlush(EncodedFrame.EMPTY)
+                        .addListener(f -> {
+                            if (f.isSuccess()) {
+                                drainedCount.increment();
+                            } else {
+                                droppedCount.increment();
+                            }
+                            channel.close();
+                        }));
+            }
+        }
+        if (expired || clients.isEmpty()) {
+            AtomicInteger remaining = new AtomicInteger(closing.size() + 1);
+            Runnable closed = () -> {
+                if (remaining.decrementAndGet() == 0) {
+                    terminate().addListener(f -> promise.setSuccess(null));
+                }
+            };
+            for (ChannelFuture future : closing) {
+                future.addListener(f -> closed.run());
+            }
+            closed.run();
+        } else {
+            executor.schedule(() -> drain(flushing, promise), DRAIN_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Shut down the event loops and handler threads.
+     *
+     * @return future completed once the event loops and the server
+     * executor terminated
+     */
+    private Future<Void> terminate() {
+        addr = null;
+        Promise<Void> terminated = GlobalEventExecutor.INSTANCE.newPromise();
+        Future<?> boss = bossGroup.shutdownGracefully();
+        // Closing clients dispatch their disconnect from the io threads,
+        // so handler threads are only shut down once those have stopped.
+        workerGroup.shutdownGracefully().addListener(f -> {
+            executor.shutdownGracefully();
+            dispatchStrategy.shutdown();
+            boss.addListener(b -> executor.terminationFuture()
+                    .addListener(e -> terminated.setSuccess(null)));
+        });
+        return terminated;
+    }
+
+    /**
+     * @return true if the server is closing gracefully
+     */
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * @return number of clients closed after draining during a graceful close
+     */
+    public long getDrainedCount() {
+        return drainedCount.sum();
+    }
+
+    /**
+     * @return number of clients closed at the deadline of a graceful close
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * @return number of requests failed at the deadline of a graceful close
+     */
+    public long getDroppedRequests() {
+        return droppedRequests.sum();
     }
 
     public ChannelGroupFuture sendAll(Packet packet) {
         if (packet == null) {
             throw new NullPointerException("packet");
         }
-        return channelGroup.writeAndFlush(packet);
+        registry.validate(packet);
+        return channelGroup.writeAndFlush(encodeOnce(packet));
     }
 
     public ChannelGroupFuture sendAll(Packet packet, ChannelMatcher matcher) {
         if (packet == null) {
             throw new NullPointerException("packet");
         }
-        return channelGroup.writeAndFlush(packet, matcher);
+        registry.validate(packet);
+        return channelGroup.writeAndFlush(encodeOnce(packet), matcher);
     }
 
     public void sendAll(Iterable<Packet> packets) {
         if (packets == null) {
             throw new NullPointerException("packets");
         }
-        EventLoop exec = serverChannel.eventLoop();
-        if (exec.inEventLoop()) {
-            try {
-                for (Packet packet : packets) {
-                    registry.validate(packet);
-                    channelGroup.write(packet);
-                }
-            } finally {
-                channelGroup.flush();
-            }
-        } else {
-            exec.execute(() -> sendAll(packets));
-        }
+        broadcast(packets, channelGroup, null);
     }
 
     public void sendAll(Iterable<Packet> packets, ChannelMatcher matcher) {
         if (packets == null) {
             throw new NullPointerException("packets");
         }
-        EventLoop exec = serverChannel.eventLoop();
-        if (exec.inEventLoop()) {
-            try {
-                for (Packet packet : packets) {
-                    registry.validate(packet);
-                    channelGroup.write(packet, matcher);
+        if (matcher == null) {
+            throw new NullPointerException("matcher");
+        }
+        broadcast(packets, channelGroup, matcher);
+    }
+
+    /**
+     * Send a packet to every client subscribed to a topic. The packet is
+     * encoded once, and only the subscribers are visited.
+     *
+     * @param topic  topic without wildcards
+     * @param packet packet to publish
+     * @return number of clients the packet was sent to
+     */
+    public int publish(String topic, Packet packet) {
+        if (packet == null) {
+            throw new NullPointerException("packet");
+        }
+        Set<ClientListener> subscribers = topics.subscribers(topic);
+        List<Channel> channels = new ArrayList<>(subscribers.size());
+        for (ClientListener client : subscribers) {
+            channels.add(client.getChannel());
+        }
+        broadcast(Collections.singletonList(packet), channels, null);
+        return channels.size();
+    }
+
+    /**
+     * Subscribe a client to a topic. Subscriptions are removed when
+     * the client disconnects.
+     *
+     * @param client client to subscribe
+     * @param topic  topic, where {@code *} matches one level and a
+     *               trailing {@code #} any number of levels
+     * @return true if the client was not subscribed to the topic yet
+     * @see TopicRegistry
+     */
+    public boolean subscribe(ClientListener client, String topic) {
+        return topics.subscribe(client, topic);
+    }
+
+    public boolean unsubscribe(ClientListener client, String topic) {
+        return topics.unsubscribe(client, topic);
+    }
+
+    public TopicRegistry getTopics() {
+        return topics;
+    }
+
+    /**
+     * Write packets to every matching channel. The packets are encoded
+     * once, then the channels are grouped by event loop and each loop is
+     * handed a single task which writes to and flushes all of its channels.
+     */
+    private void broadcast(Iterable<Packet> packets, Iterable<Channel> targets, ChannelMatcher matcher) {
+        List<Packet> validated = new ArrayList<>();
+        for (Packet packet : packets) {
+            registry.validate(packet);
+            validated.add(packet);
+        }
+        Map<EventLoop, List<Channel>> loops = new IdentityHashMap<>();
+        for (Channel channel : targets) {
+            if (matcher == null || matcher.matches(channel)) {
+                loops.computeIfAbsent(channel.eventLoop(), loop -> new ArrayList<>()).add(channel);
+            }
+        }
+        if (validated.isEmpty() || loops.isEmpty()) {
+            return;
+        }
+
+        Object[] messages = new Object[validated.size()];
+        try {
+            for (int i = 0; i < messages.length; i++) {
+                messages[i] = encodeOnce(validated.get(i));
+            }
+            for (Map.Entry<EventLoop, List<Channel>> entry : loops.entrySet()) {
+                for (Object msg : messages) {
+                    ReferenceCountUtil.retain(msg);
+                }
+                EventLoop loop = entry.getKey();
+                List<Channel> channels = entry.getValue();
+                if (loop.inEventLoop()) {
+                    writeAll(channels, messages);
+                } else {
+                    loop.execute(() -> writeAll(channels, messages));
+                }
+            }
+        } finally {
+            for (Object msg : messages) {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+    }
+
+    /**
+     * Write messages to channels of one event loop, consuming one
+     * reference to each message.
+     */
+    private static void writeAll(List<Channel> channels, Object[] messages) {
+        try {
+            for (Channel channel : channels) {
+                for (Object msg : messages) {
+                    Object duplicate = msg instanceof EncodedFrame
+                            ? ((EncodedFrame) msg).duplicate().retain() : msg;
+                    channel.write(duplicate, channel.voidPromise());
                 }
-            } finally {
-                channelGroup.flush(matcher);
+                channel.flush();
             }
-        } else {
-            exec.execute(() -> sendAll(packets, matcher));
+        } finally {
+            for (Object msg : messages) {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+    }
+
+    /**
+     * Encode a packet once for all channels it is broadcast to. The
+     * channel group hands every channel a retained duplicate of the frame.
+     */
+    private Object encodeOnce(Packet packet) {
+        if (packet instanceof ChunkedFilePacket) {
+            return packet;
         }
+        return Encoder.INSTANCE.encodeFrame(PooledByteBufAllocator.DEFAULT, packet);
     }
 
     public ChannelGroupFuture disconnectAll() {
@@ -210,20 +499,356 @@ public abstract class DataServer {
         if (handler == null) {
             throw new NullPointerException("handler");
         }
-        return handlers.add(handler);
+        synchronized (handlers) {
+            if (!handlers.add(handler)) {
+                return false;
+            }
+            updateServerHandlers();
+            return true;
+        }
     }
 
     public boolean removeHandler(EventHandler handler) {
         if (handler == null) {
             throw new NullPointerException("handler");
         }
-        return handlers.remove(handler);
+        synchronized (handlers) {
+            if (!handlers.remove(handler)) {
+                return false;
+            }
+            updateServerHandlers();
+            return true;
+        }
+    }
+
+    /**
+     * Handle packets of a type received from any client. Typed handlers
+     * are looked up by packet id and run before the event handlers.
+     *
+     * @param type    packet class, which must be registered
+     * @param handler handler called with every packet of the type
+     * @param <P>     type of the packet
+     */
+    public <P extends Packet> void on(Class<P> type, BiConsumer<? super ClientListener, ? super P> handler) {
+        dispatcher.on(type, handler);
+    }
+
+    /**
+     * Remove all typed handlers of a packet type.
+     *
+     * @param type packet class
+     * @return true if any handler was removed
+     */
+    public boolean off(Class<? extends Packet> type) {
+        return dispatcher.off(type);
+    }
+
+    public long getIdleTimeoutMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos);
+    }
+
+    /**
+     * Close client connections which did not send anything for too long,
+     * freeing connections whose remote host died without closing them.
+     * Clients of this library send a keep alive every 15 seconds while
+     * idle. Only applies to clients which connect after it was set.
+     *
+     * @param timeout time without reads after which a client is closed,
+     *                or 0 to never close idle clients
+     * @param unit    unit of the timeout
+     */
+    public void setIdleTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout: " + timeout + " (expected: >= 0)");
+        }
+        idleTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    public long getKeepAliveIntervalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(keepAliveIntervalNanos);
+    }
+
+    /**
+     * Send a keep alive to clients nothing was written to for a while.
+     * Writing to a half-open connection makes the operating system
+     * notice the remote host is gone. Only applies to clients which
+     * connect after it was set.
+     *
+     * @param interval time without writes after which a keep alive is
+     *                 sent, or 0 to never send keep alives
+     * @param unit     unit of the interval
+     */
+    public void setKeepAliveInterval(long interval, TimeUnit unit) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("interval: " + interval + " (expected: >= 0)");
+        }
+        keepAliveIntervalNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * @return number of clients closed for being idle
+     */
+    public long getReapedCount() {
+        return reapedCount.sum();
+    }
+
+    public long getKeepAlivesSent() {
+        return keepAlivesSent.sum();
+    }
+
+    public WriteBufferWaterMark getWriteBufferWaterMark() {
+        return writeBufferWaterMark;
+    }
+
+    /**
+     * Set the write buffer water marks of client connections. Only
+     * applies to clients which connect after the water marks were set.
+     *
+     * @param writeBufferWaterMark water marks to use, or null for netty's defaults
+     */
+    public void setWriteBufferWaterMark(WriteBufferWaterMark writeBufferWaterMark) {
+        this.writeBufferWaterMark = writeBufferWaterMark;
+    }
+
+    public SlowConsumerPolicy getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    /**
+     * Handle clients which do not read fast enough. Only applies to
+     * clients which connect after the policy was set.
+     *
+     * @param slowConsumerPolicy policy to use, or null to buffer writes without limit
+     */
+    public void setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+
+    public AdmissionControl getAdmissionControl() {
+        return admissionControl;
+    }
+
+    /**
+     * Limit the connections this server accepts. Clients connected
+     * before admission control was set are not counted towards its limits.
+     *
+     * @param admissionControl admission control to use, or null to accept every connection
+     */
+    public void setAdmissionControl(AdmissionControl admissionControl) {
+        this.admissionControl = admissionControl;
+    }
+
+    public LoadShedding getLoadShedding() {
+        return loadShedding;
+    }
+
+    /**
+     * Shed load when handlers or io threads fall behind. Delays are
+     * measured while load shedding is set.
+     *
+     * @param loadShedding load shedding to use, or null to queue packets without limit
+     */
+    public void setLoadShedding(LoadShedding loadShedding) {
+        this.loadShedding = loadShedding;
+        if (loadShedding != null && !probingLoad.getAndSet(true)) {
+            executor.execute(this::probeLoad);
+        }
+    }
+
+    /**
+     * Measure the delay of the io threads and of paused clients, runs on
+     * the server executor while load shedding is set.
+     */
+    private void probeLoad() {
+        LoadShedding shedding = loadShedding;
+        if (shedding == null) {
+            for (ClientListener client : pausedClients) {
+                resumeReads(client);
+            }
+            probingLoad.set(false);
+            if (loadShedding != null && !probingLoad.getAndSet(true)) {
+                executor.execute(this::probeLoad);
+            }
+            return;
+        }
+        for (EventExecutor loop : workerGroup.children()) {
+            long start = System.nanoTime();
+            loop.execute(() -> shedding.recordEventLoopDelay(loop, System.nanoTime() - start));
+        }
+        rankClients();
+        // Paused clients send no packets, so their delay is only updated by probes.
+        for (ClientListener client : pausedClients) {
+            probeClient(client, shedding);
+        }
+        executor.schedule(this::probeLoad, LOAD_PROBE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Find the clients which sent the most packets recently
+     * and together sent at least half of them. Only those are paused
+     * when the server falls behind, so quiet clients keep being read.
+     * Rates are averaged over recent probes, and paused clients keep the
+     * rate they were paused at, so they still count as offenders while
+     * nothing or little is read from them.
+     */
+    private void rankClients() {
+        long[] rates = new long[clients.size()];
+        int count = 0;
+        long total = 0;
+        for (ClientListener client : clients.values()) {
+            long received = client.received;
+            long rate = client.inboundRate;
+            if (!client.readPaused) {
+                rate = (rate + received - client.receivedAtProbe) / 2;
+            }
+            client.receivedAtProbe = received;
+            client.inboundRate = rate;
+            if (count == rates.length) {
+                rates = Arrays.copyOf(rates, count * 2 + 1);
+            }
+            rates[count++] = rate;
+            total += rate;
+        }
+        Arrays.sort(rates, 0, count);
+        long cutoff = Long.MAX_VALUE;
+        long sum = 0;
+        for (int i = count - 1; i >= 0 && sum * 2 < total; i--) {
+            cutoff = rates[i];
+            sum += rates[i];
+        }
+        pauseRateCutoff = cutoff;
+    }
+
+    private void probeClient(ClientListener client, LoadShedding shedding) {
+        if (!client.probing.compareAndSet(false, true)) {
+            return;
+        }
+        long start = System.nanoTime();
+        client.executor.execute(() -> {
+            long delay = System.nanoTime() - start;
+            client.queueDelay.record(delay);
+            client.probing.set(false);
+            if (client.readPaused && shedding.shouldResume(delay)) {
+                resumeReads(client);
+            }
+        });
+    }
+
+    private void pauseReads(ClientListener client, LoadShedding shedding) {
+        client.readPaused = true;
+        pausedClients.add(client);
+        client.getChannel().config().setAutoRead(false);
+        shedding.paused();
+    }
+
+    private void resumeReads(ClientListener client) {
+        if (pausedClients.remove(client)) {
+            client.readPaused = false;
+            client.getChannel().config().setAutoRead(true);
+        }
+    }
+
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    /**
+     * Coalesce flushes on client connections. Only applies to clients
+     * which connect after the policy was set.
+     *
+     * @param flushPolicy policy to use, or null to flush immediately
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+    }
+
+    public long getRequestTimeoutMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(requestTimeoutNanos);
+    }
+
+    /**
+     * Set the timeout of requests sent to clients which do not specify one.
+     *
+     * @param timeout time to wait for a response
+     * @param unit    unit of the timeout
+     */
+    public void setRequestTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout: " + timeout + " (expected: > 0)");
+        }
+        requestTimeoutNanos = unit.toNanos(timeout);
+        for (ClientListener client : clients.values()) {
+            client.getRequestPool().setDefaultTimeout(timeout, unit);
+        }
+    }
+
+    /**
+     * @return round trip times of requests sent to clients, across all clients
+     */
+    public LatencyStats getLatencyStats() {
+        return latencyStats;
+    }
+
+    public InFlightWindow getInFlightWindow() {
+        return inFlightWindow;
+    }
+
+    /**
+     * Limit the number of requests sent to clients which may await a
+     * response at once, across all clients.
+     *
+     * @param window window to use, or null for no limit
+     */
+    public void setInFlightWindow(InFlightWindow window) {
+        inFlightWindow = window;
+        for (ClientListener client : clients.values()) {
+            client.getRequestPool().setWindow(window);
+        }
+    }
+
+    public boolean isRecycling() {
+        return recycling;
+    }
+
+    /**
+     * Reuse request and response envelopes for every round trip instead
+     * of allocating new ones. Only applies to clients which connect after
+     * recycling was enabled. Responses must not be referenced after the
+     * response handler returns. Received response packets are recycled
+     * on the io thread, and requests and outbound packets are only reused
+     * when created on the thread which completes or encodes them, see
+     * {@link RequestPool#setRecycling(boolean)}.
+     *
+     * @param recycling whether to pool request and response objects
+     */
+    public void setRecycling(boolean recycling) {
+        this.recycling = recycling;
     }
 
     public SingleThreadEventExecutor getExecutor() {
         return executor;
     }
 
+    /**
+     * @return true if the current thread is an io thread, the executor or
+     * a handler thread of this server
+     */
+    boolean inServerThread() {
+        if (executor.inEventLoop() || dispatchStrategy.inDispatchThread()) {
+            return true;
+        }
+        for (EventExecutor loop : workerGroup.children()) {
+            if (loop.inEventLoop()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public DispatchStrategy getDispatchStrategy() {
+        return dispatchStrategy;
+    }
+
     public NioEventLoopGroup getBossGroup() {
         return bossGroup;
     }
@@ -272,12 +897,44 @@ public abstract class DataServer {
         return !closed;
     }
 
+    /**
+     * Create the pool tracking requests sent to a client. Timeouts are
+     * advanced on the event loop of the client and failures are reported
+     * through its dispatch executor, so clients never share request state.
+     */
+    private RequestPool newRequestPool(Channel channel, Executor dispatcher) {
+        RequestPool pool = new RequestPool(100, TimeUnit.MILLISECONDS, latencyStats) {
+            @Override
+            protected void schedule(Runnable task, long delay, TimeUnit unit) {
+                channel.eventLoop().schedule(task, delay, unit);
+            }
+
+            @Override
+            protected void requestFailed(ResponseHandler handler) {
+                dispatcher.execute(handler::requestFailed);
+            }
+        };
+        pool.setDefaultTimeout(requestTimeoutNanos, TimeUnit.NANOSECONDS);
+        pool.setWindow(inFlightWindow);
+        pool.setRecycling(recycling);
+        return pool;
+    }
+
+    private void updateServerHandlers() {
+        List<ServerEventHandler> list = new ArrayList<>(handlers.size());
+        for (EventHandler handler : handlers) {
+            if (handler instanceof ServerEventHandler) {
+                list.add((ServerEventHandler) handler);
+            }
+        }
+        serverHandlers = list.toArray(new ServerEventHandler[list.size()]);
+    }
+
     private void firePacketReceived(ClientListener channel, Packet packet) {
         if (packet.getId() != KeepAlivePacket.PACKET_ID) {
-            for (EventHandler handler : handlers) {
-                if (handler instanceof ServerEventHandler) {
-                    ((ServerEventHandler) handler).packetReceived(channel, packet);
-                }
+            dispatcher.dispatch(channel, packet);
+            for (ServerEventHandler handler : serverHandlers) {
+                handler.packetReceived(channel, packet);
             }
         }
     }
@@ -291,13 +948,21 @@ public abstract class DataServer {
             ChannelId id = channel.id();
             channelGroup.add(channel);
 
-            ClientListener client = new ClientListener(DataServer.this, channel);
+            Executor dispatcher = dispatchStrategy.newConnectionExecutor(DataServer.this);
+            RequestPool pool = newRequestPool(channel, dispatcher);
+            channel.attr(ClientListener.REQUEST_POOL).set(pool);
+            ClientListener client = new ClientListener(DataServer.this, channel, dispatcher, pool);
             clients.put(id, client);
-            for (EventHandler handler : handlers) {
-                if (handler instanceof ServerEventHandler) {
-                    ((ServerEventHandler) handler).clientConnected(client);
-                }
+            if (draining) {
+                // Accepted just before the server channel was closed.
+                long remaining = drainDeadlineNanos - System.nanoTime();
+                ctx.writeAndFlush(new GoAwayPacket(Math.max(TimeUnit.NANOSECONDS.toMillis(remaining), 0)));
             }
+            dispatch(ctx, client, () -> {
+                for (ServerEventHandler handler : serverHandlers) {
+                    handler.clientConnected(client);
+                }
+            });
         }
 
         @Override
@@ -306,13 +971,55 @@ public abstract class DataServer {
             channelGroup.remove(channel);
 
             ClientListener client = clients.remove(channel.id());
-            for (EventHandler handler : handlers) {
-                if (handler instanceof ServerEventHandler) {
-                    ((ServerEventHandler) handler).clientDisconnected(client);
+            if (client == null) {
+                return;
+            }
+            // Marked disconnected first, so handlers still queued for the
+            // client cannot subscribe it again once it was unsubscribed.
+            client.disconnected();
+            topics.unsubscribeAll(client);
+            pausedClients.remove(client);
+            // Fail requests awaiting a response right away instead of
+            // letting them time out, after any responses already received.
+            dispatch(ctx, client, client.getRequestPool()::clear);
+            dispatch(ctx, client, () -> {
+                for (ServerEventHandler handler : serverHandlers) {
+                    handler.clientDisconnected(client);
+                }
+            });
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent) {
+                IdleStateEvent idle = (IdleStateEvent) evt;
+                if (idle.state() == IdleState.READER_IDLE) {
+                    reapedCount.increment();
+                    ctx.close();
+                } else if (idle.state() == IdleState.WRITER_IDLE) {
+                    keepAlivesSent.increment();
+                    ctx.writeAndFlush(KeepAlivePacket.INSTANCE);
                 }
+            } else {
+                ctx.fireUserEventTriggered(evt);
             }
         }
 
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+            ClientListener client = getClient(ctx.channel());
+            if (client == null) {
+                return;
+            }
+            boolean writable = ctx.channel().isWritable();
+            client.writabilityChanged(writable);
+            dispatch(ctx, client, () -> {
+                for (ServerEventHandler handler : serverHandlers) {
+                    handler.writabilityChanged(client, writable);
+                }
+            });
+        }
+
         @Override
         public void channelRead(ChannelHandlerContext ctx, Object msg) {
             if (!(msg instanceof Packet)) {
@@ -320,23 +1027,63 @@ public abstract class DataServer {
                 return;
             }
             Packet packet = (Packet) msg;
-            Channel channel = ctx.channel();
-            ClientListener client = getClient(channel);
+            ClientListener client = getClient(ctx.channel());
+            LoadShedding shedding = loadShedding;
+            if (shedding != null && shed(ctx, client, packet, shedding)) {
+                return;
+            }
             if (packet instanceof ResponsePacket) {
                 ResponsePacket resp = (ResponsePacket) packet;
-                Request request = requestPool.take(resp.getUniqueId());
-                if (request != null) {
-                    if (request instanceof TimedRequest) {
-                        TimedRequest timed = (TimedRequest) request;
-                        long time = System.currentTimeMillis() - timed.getStartTime();
-                        request.getHandler().responseReceived(new TimedResponse(resp.getPacket(), time));
-                    } else {
-                        request.getHandler().responseReceived(new DefaultResponse(resp.getPacket()));
-                    }
-                } else {
-                    ctx.fireExceptionCaught(new NullPointerException("Invalid response: " + resp.getUniqueId()));
-                }
-            } else if (packet instanceof RequestPacket) {
+                long uniqueId = resp.getUniqueId();
+                Packet body = resp.getPacket();
+                // Recycled on the io thread which decoded it, a pooled packet
+                // released on a handler thread would never be reused.
+                resp.recycle();
+                dispatch(ctx, client, () -> complete(ctx, uniqueId, body));
+                return;
+            }
+            dispatch(ctx, client, () -> handle(ctx, client, packet));
+        }
+
+        /**
+         * Pause reading from the client or reject its request if the
+         * server is behind.
+         *
+         * @return true if the packet was rejected
+         */
+        private boolean shed(ChannelHandlerContext ctx, ClientListener client, Packet packet, LoadShedding shedding) {
+            client.received++;
+            long delay = Math.max(client.queueDelay.current(System.nanoTime()),
+                    shedding.getEventLoopDelayNanos(ctx.channel().eventLoop()));
+            // The delay is shared by every client of the executor and io thread,
+            // so only the clients sending the most packets are paused.
+            if (!client.readPaused && shedding.shouldPause(delay)
+                    && client.inboundRate >= pauseRateCutoff) {
+                pauseReads(client, shedding);
+            }
+            if (!(packet instanceof RequestPacket) || !shedding.shouldReject(delay)) {
+                return false;
+            }
+            RequestPacket request = (RequestPacket) packet;
+            if (request.getPacket() instanceof KeepAlivePacket) {
+                return false;
+            }
+            if (request.getPacket() instanceof ByteBufPacket) {
+                ((ByteBufPacket) request.getPacket()).takeBuffer().release();
+            }
+            shedding.rejected();
+            client.respond(request, OverloadedPacket.INSTANCE);
+            return true;
+        }
+
+        private void complete(ChannelHandlerContext ctx, long uniqueId, Packet packet) {
+            if (!ctx.channel().attr(ClientListener.REQUEST_POOL).get().complete(uniqueId, packet)) {
+                ctx.fireExceptionCaught(new NullPointerException("Invalid response: " + uniqueId));
+            }
+        }
+
+        private void handle(ChannelHandlerContext ctx, ClientListener client, Packet packet) {
+            if (packet instanceof RequestPacket) {
                 RequestPacket request = (RequestPacket) packet;
                 if (request.getPacket() instanceof KeepAlivePacket) {
                     client.respond(request, request.getPacket());
@@ -348,9 +1095,29 @@ public abstract class DataServer {
             }
         }
 
+        private void dispatch(ChannelHandlerContext ctx, ClientListener client, Runnable task) {
+            LoadShedding shedding = loadShedding;
+            long queued = 0;
+            if (shedding != null) {
+                queued = System.nanoTime();
+                client.queueDelay.queued(queued);
+            }
+            long queuedNanos = queued;
+            client.executor.execute(() -> {
+                if (shedding != null) {
+                    shedding.recordDispatchDelay(client.queueDelay.started(queuedNanos, System.nanoTime()));
+                }
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    exceptionCaught(ctx, e);
+                }
+            });
+        }
+
         @Override
         public void exceptionCaught(ChannelHandlerContext ctx, Throwable e) {
-            e.getCause().printStackTrace();
+            (e.getCause() != null ? e.getCause() : e).printStackTrace();
         }
     }
 }
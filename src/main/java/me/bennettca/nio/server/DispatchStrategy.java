@@ -0,0 +1,262 @@
+package me.bennettca.nio.server;
+
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decides which thread runs the event handlers of a server. Every
+ * strategy preserves ordering per connection: packets from one client are
+ * handled one at a time in the order they were received, followed by
+ * the disconnect event.
+ * <p>
+ * A strategy owns its threads and is shut down with the server it was
+ * passed to, once the io threads stopped dispatching to it, so it must
+ * not be shared between servers.
+ */
+public abstract class DispatchStrategy {
+
+    private DispatchStrategy() {
+    }
+
+    /**
+     * Handle packets on the io thread of the connection. Has the lowest
+     * latency, but handlers must never block.
+     *
+     * @return inline strategy
+     */
+    public static DispatchStrategy inline() {
+        return new Inline();
+    }
+
+    /**
+     * Handle packets of all connections on the executor of the server,
+     * see {@link DataServer#getExecutor()}. Tasks submitted to that
+     * executor run one at a time with the handlers. This is the default.
+     *
+     * @return single threaded strategy
+     */
+    public static DispatchStrategy single() {
+        return new Single();
+    }
+
+    /**
+     * Handle packets on a pool of threads. Each connection is assigned
+     * one thread of the pool when it connects.
+     *
+     * @param threads number of threads
+     * @return striped strategy
+     */
+    public static DispatchStrategy striped(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads: " + threads + " (expected: > 0)");
+        }
+        return new Striped(threads);
+    }
+
+    /**
+     * Handle every packet on a new virtual thread, one at a time per
+     * connection. Handlers may block freely.
+     *
+     * @return virtual thread strategy
+     * @throws UnsupportedOperationException if virtual threads are not
+     *                                       supported by the running jvm
+     */
+    public static DispatchStrategy virtualThreads() {
+        ExecutorService executor;
+        try {
+            executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer", e);
+        }
+        return new VirtualThreads(executor);
+    }
+
+    public static boolean isVirtualThreadsSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the executor for a new connection. Tasks submitted to it must
+     * run one at a time in submission order.
+     *
+     * @param server server the connection was accepted by
+     */
+    abstract Executor newConnectionExecutor(DataServer server);
+
+    /**
+     * @return true if the current thread is one of the threads of this
+     * strategy, io threads and the server executor excluded
+     */
+    abstract boolean inDispatchThread();
+
+    abstract void shutdown();
+
+    private static final class Inline extends DispatchStrategy {
+
+        @Override
+        Executor newConnectionExecutor(DataServer server) {
+            return Runnable::run;
+        }
+
+        @Override
+        boolean inDispatchThread() {
+            return false;
+        }
+
+        @Override
+        void shutdown() {
+        }
+
+        @Override
+        public String toString() {
+            return "DispatchStrategy(inline)";
+        }
+    }
+
+    private static final class Single extends DispatchStrategy {
+
+        @Override
+        Executor newConnectionExecutor(DataServer server) {
+            return server.getExecutor();
+        }
+
+        @Override
+        boolean inDispatchThread() {
+            return false;
+        }
+
+        @Override
+        void shutdown() {
+            // The executor belongs to the server, which shuts it down.
+        }
+
+        @Override
+        public String toString() {
+            return "DispatchStrategy(single)";
+        }
+    }
+
+    private static final class Striped extends DispatchStrategy {
+
+        private final int threads;
+        private final DefaultEventExecutorGroup group;
+
+        Striped(int threads) {
+            this.threads = threads;
+            group = new DefaultEventExecutorGroup(threads, new DefaultThreadFactory("serverHandler"));
+        }
+
+        @Override
+        Executor newConnectionExecutor(DataServer server) {
+            return group.next();
+        }
+
+        @Override
+        boolean inDispatchThread() {
+            for (EventExecutor executor : group.children()) {
+                if (executor.inEventLoop()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        void shutdown() {
+            group.shutdownGracefully();
+        }
+
+        @Override
+        public String toString() {
+            return "DispatchStrategy(striped: " + threads + ')';
+        }
+    }
+
+    private static final class VirtualThreads extends DispatchStrategy {
+
+        private final ExecutorService executor;
+
+        VirtualThreads(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        Executor newConnectionExecutor(DataServer server) {
+            return new SerialExecutor(executor);
+        }
+
+        @Override
+        boolean inDispatchThread() {
+            return SerialExecutor.DRAINING.get() != null;
+        }
+
+        @Override
+        void shutdown() {
+            executor.shutdown();
+        }
+
+        @Override
+        public String toString() {
+            return "DispatchStrategy(virtual threads)";
+        }
+    }
+
+    /**
+     * Runs tasks one at a time on an executor which may run tasks
+     * concurrently, draining all queued tasks in a single submission.
+     */
+    private static final class SerialExecutor implements Executor {
+
+        private static final ThreadLocal<Boolean> DRAINING = new ThreadLocal<>();
+
+        private final Executor executor;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        SerialExecutor(Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (running.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            DRAINING.set(Boolean.TRUE);
+            try {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+            } finally {
+                DRAINING.remove();
+                running.set(false);
+                if (!tasks.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+    }
+}
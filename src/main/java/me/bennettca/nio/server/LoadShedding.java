@@ -0,0 +1,145 @@
+package me.bennettca.nio.server;
+
+import io.netty.util.concurrent.EventExecutor;
+import me.bennettca.nio.request.LatencyHistogram;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sheds load when a server falls behind. The delay of a client is how
+ * long its oldest packet has been waiting for the handlers, or how long
+ * tasks wait on its io thread, whichever is higher.
+ * <p>
+ * Above the reject threshold, requests from the client are answered
+ * with an {@link me.bennettca.nio.protocol.packet.OverloadedPacket}
+ * right away instead of being queued for the handlers. Above the pause
+ * threshold, the server stops reading from the client until the delay
+ * fell below half the threshold again. Only the clients which sent the
+ * most packets recently, together at least half of all packets, are
+ * paused, so quiet clients are not paused for the load of others.
+ */
+public final class LoadShedding {
+
+    private final long rejectThresholdNanos;
+    private final long pauseThresholdNanos;
+
+    private final LatencyHistogram dispatchDelay = new LatencyHistogram();
+    private final LatencyHistogram eventLoopDelay = new LatencyHistogram();
+    private final Map<EventExecutor, Long> eventLoopDelays = new ConcurrentHashMap<>();
+
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder pausedCount = new LongAdder();
+
+    /**
+     * Construct load shedding.
+     *
+     * @param rejectThreshold delay above which requests are rejected, or 0 to never reject
+     * @param pauseThreshold  delay above which reading is paused, or 0 to never pause
+     * @param unit            unit of the thresholds
+     */
+    public LoadShedding(long rejectThreshold, long pauseThreshold, TimeUnit unit) {
+        if (rejectThreshold < 0) {
+            throw new IllegalArgumentException("rejectThreshold: " + rejectThreshold + " (expected: >= 0)");
+        }
+        if (pauseThreshold < 0) {
+            throw new IllegalArgumentException("pauseThreshold: " + pauseThreshold + " (expected: >= 0)");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit");
+        }
+        rejectThresholdNanos = unit.toNanos(rejectThreshold);
+        pauseThresholdNanos = unit.toNanos(pauseThreshold);
+    }
+
+    public long getRejectThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(rejectThresholdNanos);
+    }
+
+    public long getPauseThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(pauseThresholdNanos);
+    }
+
+    /**
+     * @return time packets waited before their handlers ran
+     */
+    public LatencyHistogram getDispatchDelay() {
+        return dispatchDelay;
+    }
+
+    /**
+     * @return time probe tasks waited on the io threads
+     */
+    public LatencyHistogram getEventLoopDelay() {
+        return eventLoopDelay;
+    }
+
+    /**
+     * @return most recently measured delay of the slowest io thread
+     */
+    public long getEventLoopDelayNanos() {
+        long max = 0;
+        for (long delay : eventLoopDelays.values()) {
+            max = Math.max(max, delay);
+        }
+        return max;
+    }
+
+    /**
+     * @return number of requests rejected without being handled
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * @return number of times reading from a client was paused
+     */
+    public long getPausedCount() {
+        return pausedCount.sum();
+    }
+
+    long getEventLoopDelayNanos(EventExecutor loop) {
+        Long delay = eventLoopDelays.get(loop);
+        return delay != null ? delay : 0;
+    }
+
+    void recordDispatchDelay(long nanos) {
+        dispatchDelay.record(nanos);
+    }
+
+    void recordEventLoopDelay(EventExecutor loop, long nanos) {
+        eventLoopDelay.record(nanos);
+        eventLoopDelays.put(loop, nanos);
+    }
+
+    boolean shouldReject(long delayNanos) {
+        return rejectThresholdNanos > 0 && delayNanos > rejectThresholdNanos;
+    }
+
+    boolean shouldPause(long delayNanos) {
+        return pauseThresholdNanos > 0 && delayNanos > pauseThresholdNanos;
+    }
+
+    boolean shouldResume(long delayNanos) {
+        return delayNanos <= pauseThresholdNanos / 2;
+    }
+
+    void rejected() {
+        rejectedCount.increment();
+    }
+
+    void paused() {
+        pausedCount.increment();
+    }
+
+    @Override
+    public String toString() {
+        return "LoadShedding(dispatch p99: " + TimeUnit.NANOSECONDS.toMillis(dispatchDelay.getP99Nanos())
+                + "ms, event loop: " + TimeUnit.NANOSECONDS.toMillis(getEventLoopDelayNanos())
+                + "ms, rejected: " + getRejectedCount()
+                + ", paused: " + getPausedCount() + ')';
+    }
+}
@@ -7,8 +7,50 @@ import io.netty.util.concurrent.DefaultThreadFactory;
 public class NioDataServer extends DataServer {
 
     public NioDataServer(ServerFutureListener future) {
+        this(future, 1);
+    }
+
+    /**
+     * Construct a server.
+     *
+     * @param future        listener notified when the server is bound
+     * @param workerThreads number of io threads serving client connections,
+     *                      or 0 for twice the number of available processors
+     */
+    public NioDataServer(ServerFutureListener future, int workerThreads) {
+        this(future, workerThreads, DispatchStrategy.single());
+    }
+
+    /**
+     * Construct a server.
+     *
+     * @param future           listener notified when the server is bound
+     * @param dispatchStrategy decides which threads run the event handlers
+     */
+    public NioDataServer(ServerFutureListener future, DispatchStrategy dispatchStrategy) {
+        this(future, 1, dispatchStrategy);
+    }
+
+    /**
+     * Construct a server.
+     *
+     * @param future           listener notified when the server is bound
+     * @param workerThreads    number of io threads serving client connections,
+     *                         or 0 for twice the number of available processors
+     * @param dispatchStrategy decides which threads run the event handlers
+     */
+    public NioDataServer(ServerFutureListener future, int workerThreads,
+            DispatchStrategy dispatchStrategy) {
         super(NioServerSocketChannel.class,
                 new NioEventLoopGroup(1, new DefaultThreadFactory("serverBossGroup")),
-                new NioEventLoopGroup(1, new DefaultThreadFactory("serverWorkerGroup")), future);
+                new NioEventLoopGroup(checkThreads(workerThreads), new DefaultThreadFactory("serverWorkerGroup")),
+                future, dispatchStrategy);
+    }
+
+    private static int checkThreads(int workerThreads) {
+        if (workerThreads < 0) {
+            throw new IllegalArgumentException("workerThreads: " + workerThreads + " (expected: >= 0)");
+        }
+        return workerThreads;
     }
 }
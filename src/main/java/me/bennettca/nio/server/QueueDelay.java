@@ -0,0 +1,67 @@
+package me.bennettca.nio.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures how long the packets of one client wait before its handlers
+ * run. Packets are handled in the order they were queued, so the oldest
+ * waiting packet is found from the number of queued and started tasks,
+ * whose queue times are kept in a ring. While more packets are waiting
+ * than the ring holds, the delay is underestimated.
+ */
+final class QueueDelay {
+
+    private static final int CAPACITY = 64;
+    private static final int MASK = CAPACITY - 1;
+
+    private final AtomicLongArray queuedAt = new AtomicLongArray(CAPACITY);
+    private volatile long queued;
+    private volatile long started;
+    private volatile long lastDelayNanos;
+
+    /**
+     * Called by the io thread when a task is queued.
+     */
+    void queued(long now) {
+        long seq = queued;
+        queuedAt.set((int) (seq & MASK), now);
+        queued = seq + 1;
+    }
+
+    /**
+     * Called by the executor when a queued task starts.
+     *
+     * @return time the task waited
+     */
+    long started(long queuedNanos, long now) {
+        started++;
+        long delay = now - queuedNanos;
+        lastDelayNanos = delay;
+        return delay;
+    }
+
+    /**
+     * Record a delay measured by a probe task.
+     */
+    void record(long delayNanos) {
+        lastDelayNanos = delayNanos;
+    }
+
+    /**
+     * @return time the oldest waiting task has waited so far, or 0 if
+     * no task is waiting
+     */
+    long current(long now) {
+        long seq = started;
+        long end = queued;
+        if (seq >= end) {
+            return 0;
+        }
+        long oldest = Math.max(seq, end - CAPACITY);
+        return now - queuedAt.get((int) (oldest & MASK));
+    }
+
+    long last() {
+        return lastDelayNanos;
+    }
+}
@@ -23,4 +23,15 @@ public interface ServerEventHandler extends EventHandler {
      * @param client disconnected client
      */
     void clientDisconnected(ClientListener client);
+
+    /**
+     * Client connection became writable or unwritable. A connection is
+     * unwritable while more data than the high water mark is waiting to
+     * be sent to the client.
+     * @param client   client whose writability changed
+     * @param writable whether the connection is writable
+     */
+    default void writabilityChanged(ClientListener client, boolean writable) {
+
+    }
 }
@@ -0,0 +1,192 @@
+package me.bennettca.nio.server;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of topic subscriptions. Topics are split into levels by dots,
+ * e.g. {@code prices.eu.btc}. Subscriptions may contain wildcards:
+ * {@code *} matches exactly one level and {@code #}, which must be the
+ * last level, matches any number of remaining levels including none.
+ * <p>
+ * Subscriptions are kept in a tree of levels, so matching a topic only
+ * visits the branches that can match it and costs time proportional to
+ * the number of levels and subscribers, not the number of clients.
+ * Matching is lock free, subscribing and unsubscribing are synchronized.
+ */
+public final class TopicRegistry {
+
+    private static final String SINGLE_LEVEL = "*";
+    private static final String MULTI_LEVEL = "#";
+
+    private final Node root = new Node(null, null);
+    private final Map<ClientListener, Set<String>> subscriptions = new ConcurrentHashMap<>();
+
+    TopicRegistry() {
+
+    }
+
+    /**
+     * Subscribe a client to a topic. Clients which already disconnected
+     * are not subscribed, so handlers still running for them cannot add
+     * subscriptions which are never removed.
+     *
+     * @param client client to subscribe
+     * @param topic  topic, which may contain wildcards
+     * @return true if the client was not subscribed to the topic yet, or
+     * false if it already disconnected
+     */
+    public synchronized boolean subscribe(ClientListener client, String topic) {
+        if (client == null) {
+            throw new NullPointerException("client");
+        }
+        String[] levels = split(topic, true);
+        if (client.isDisconnected()) {
+            return false;
+        }
+        Set<String> topics = subscriptions.computeIfAbsent(client, c -> ConcurrentHashMap.newKeySet());
+        if (!topics.add(topic)) {
+            return false;
+        }
+        Node node = root;
+        for (String level : levels) {
+            Node parent = node;
+            node = parent.children.computeIfAbsent(level, l -> new Node(parent, l));
+        }
+        node.subscribers.add(client);
+        return true;
+    }
+
+    /**
+     * Unsubscribe a client from a topic.
+     *
+     * @param client subscribed client
+     * @param topic  topic the client subscribed to, wildcards are not expanded
+     * @return true if the client was subscribed to the topic
+     */
+    public synchronized boolean unsubscribe(ClientListener client, String topic) {
+        if (client == null) {
+            throw new NullPointerException("client");
+        }
+        String[] levels = split(topic, true);
+        Set<String> topics = subscriptions.get(client);
+        if (topics == null || !topics.remove(topic)) {
+            return false;
+        }
+        if (topics.isEmpty()) {
+            subscriptions.remove(client);
+        }
+        Node node = root;
+        for (String level : levels) {
+            node = node.children.get(level);
+        }
+        node.subscribers.remove(client);
+        prune(node);
+        return true;
+    }
+
+    /**
+     * Remove all subscriptions of a client.
+     *
+     * @param client subscribed client
+     */
+    public synchronized void unsubscribeAll(ClientListener client) {
+        Set<String> topics = subscriptions.get(client);
+        if (topics != null) {
+            for (String topic : topics.toArray(new String[topics.size()])) {
+                unsubscribe(client, topic);
+            }
+        }
+    }
+
+    /**
+     * Find the clients subscribed to a topic, directly or by wildcard.
+     *
+     * @param topic topic without wildcards
+     * @return matching clients, each contained once
+     */
+    public Set<ClientListener> subscribers(String topic) {
+        String[] levels = split(topic, false);
+        Set<ClientListener> matched = new HashSet<>();
+        match(root, levels, 0, matched);
+        return matched;
+    }
+
+    /**
+     * @param client client to look up
+     * @return topics the client subscribed to
+     */
+    public Set<String> getTopics(ClientListener client) {
+        Set<String> topics = subscriptions.get(client);
+        return topics != null ? Collections.unmodifiableSet(topics) : Collections.emptySet();
+    }
+
+    private static void match(Node node, String[] levels, int depth, Set<ClientListener> matched) {
+        Node multi = node.children.get(MULTI_LEVEL);
+        if (multi != null) {
+            matched.addAll(multi.subscribers);
+        }
+        if (depth == levels.length) {
+            matched.addAll(node.subscribers);
+            return;
+        }
+        Node exact = node.children.get(levels[depth]);
+        if (exact != null) {
+            match(exact, levels, depth + 1, matched);
+        }
+        Node single = node.children.get(SINGLE_LEVEL);
+        if (single != null) {
+            match(single, levels, depth + 1, matched);
+        }
+    }
+
+    private static void prune(Node node) {
+        while (node.parent != null && node.subscribers.isEmpty() && node.children.isEmpty()) {
+            node.parent.children.remove(node.level, node);
+            node = node.parent;
+        }
+    }
+
+    private static String[] split(String topic, boolean wildcards) {
+        if (topic == null) {
+            throw new NullPointerException("topic");
+        }
+        if (topic.isEmpty()) {
+            throw new IllegalArgumentException("Topic cannot be empty");
+        }
+        String[] levels = topic.split("\\.", -1);
+        for (int i = 0; i < levels.length; i++) {
+            String level = levels[i];
+            if (level.isEmpty()) {
+                throw new IllegalArgumentException("Empty topic level: " + topic);
+            }
+            boolean wildcard = level.equals(SINGLE_LEVEL) || level.equals(MULTI_LEVEL);
+            if (wildcard && !wildcards) {
+                throw new IllegalArgumentException("Cannot publish to a wildcard topic: " + topic);
+            }
+            if (!wildcard && (level.contains(SINGLE_LEVEL) || level.contains(MULTI_LEVEL))) {
+                throw new IllegalArgumentException("Wildcards must be a whole level: " + topic);
+            }
+            if (level.equals(MULTI_LEVEL) && i != levels.length - 1) {
+                throw new IllegalArgumentException("# must be the last level: " + topic);
+            }
+        }
+        return levels;
+    }
+
+    private static final class Node {
+
+        private final Map<String, Node> children = new ConcurrentHashMap<>();
+        private final Set<ClientListener> subscribers = ConcurrentHashMap.newKeySet();
+        private final Node parent;
+        private final String level;
+
+        Node(Node parent, String level) {
+            this.parent = parent;
+            this.level = level;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package me.bennettca.nio.bench;
+
+import me.bennettca.nio.BufferedPacket;
+import me.bennettca.nio.client.NioDataClient;
+import me.bennettca.nio.protocol.Packet;
+import me.bennettca.nio.protocol.packet.RequestPacket;
+import me.bennettca.nio.request.Response;
+import me.bennettca.nio.request.ResponseHandler;
+import me.bennettca.nio.server.ClientListener;
+import me.bennettca.nio.server.DispatchStrategy;
+import me.bennettca.nio.server.NioDataServer;
+import me.bennettca.nio.server.ServerEventHandler;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Measures the bytes allocated per request round trip over loopback,
+ * with and without recycling of request and response envelopes.
+ * Allocations of every live thread are summed, so the client and the
+ * server in this process are both counted.
+ * <p>
+ * Requests are either made from an application thread, whose envelopes
+ * are recycled on the io thread and so dropped by the pool, or from the
+ * client's io thread, where they are reused.
+ * <p>
+ * Run after {@code mvn test-compile} with
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;netty-all jar&gt; \
+ *     me.bennettca.nio.bench.RecyclingAllocationBenchmark [round trips] [port]
+ * </pre>
+ * Requires a JVM whose thread MXBean measures allocated bytes, such as HotSpot.
+ */
+public final class RecyclingAllocationBenchmark {
+
+    private static final int WARMUP = 50_000;
+
+    public static void main(String[] args) throws Exception {
+        int roundTrips = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 25565;
+
+        NioDataServer server = new NioDataServer(null, 1, DispatchStrategy.inline());
+        server.addHandler(new ServerEventHandler() {
+            @Override
+            public void packetReceived(ClientListener client, Packet packet) {
+                if (packet instanceof RequestPacket) {
+                    client.respond((RequestPacket) packet, new BufferedPacket().writeInt(1));
+                }
+            }
+
+            @Override
+            public void clientConnected(ClientListener client) {
+            }
+
+            @Override
+            public void clientDisconnected(ClientListener client) {
+            }
+        });
+        server.bind(port).sync();
+        try {
+            for (boolean recycling : new boolean[] {false, true}) {
+                server.setRecycling(recycling);
+                NioDataClient client = new NioDataClient(null);
+                client.setRecycling(recycling);
+                client.connect("127.0.0.1", port).sync();
+                while (client.getChannel() == null) {
+                    Thread.sleep(10);
+                }
+                try {
+                    fromApplicationThread(client, WARMUP);
+                    long bytes = allocatedBytes();
+                    fromApplicationThread(client, roundTrips);
+                    report(recycling, "application thread", allocatedBytes() - bytes, roundTrips);
+
+                    fromIoThread(client, WARMUP);
+                    bytes = allocatedBytes();
+                    fromIoThread(client, roundTrips);
+                    report(recycling, "io thread", allocatedBytes() - bytes, roundTrips);
+                } finally {
+                    client.close().sync();
+                }
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Make requests one at a time from the calling thread.
+     */
+    private static void fromApplicationThread(NioDataClient client, int count) throws InterruptedException {
+        Semaphore done = new Semaphore(0);
+        ResponseHandler handler = response -> done.release();
+        for (int i = 0; i < count; i++) {
+            client.request(new BufferedPacket().writeInt(i), handler);
+            done.acquire();
+        }
+    }
+
+    /**
+     * Make requests one at a time from the io thread, each sent by the
+     * handler of the previous response.
+     */
+    private static void fromIoThread(NioDataClient client, int count) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        ResponseHandler handler = new ResponseHandler() {
+            private int remaining = count;
+
+            @Override
+            public void responseReceived(Response response) {
+                if (--remaining == 0) {
+                    done.countDown();
+                } else {
+                    client.request(new BufferedPacket().writeInt(remaining), this);
+                }
+            }
+        };
+        client.getChannel().eventLoop().execute(() -> client.request(new BufferedPacket().writeInt(count), handler));
+        done.await();
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static void report(boolean recycling, String caller, long bytes, int roundTrips) {
+        System.out.printf("recycling: %-5s  caller: %-18s  %6d bytes per round trip%n",
+                recycling, caller, bytes / roundTrips);
+    }
+}
@@ -0,0 +1,208 @@
+package me.bennettca.nio.channel;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalEventLoopGroup;
+import io.netty.channel.local.LocalServerChannel;
+import me.bennettca.nio.protocol.Packet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConflatingQueueTest {
+
+    private LocalEventLoopGroup group;
+    private Channel server;
+    private Channel channel;
+    private final List<UpdatePacket> received = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void connect() throws Exception {
+        group = new LocalEventLoopGroup(2);
+        LocalAddress addr = new LocalAddress("conflating-" + System.nanoTime());
+        server = new ServerBootstrap()
+                .group(group)
+                .channel(LocalServerChannel.class)
+                .childHandler(new ChannelInitializer<LocalChannel>() {
+                    @Override
+                    protected void initChannel(LocalChannel ch) {
+                        ch.pipeline().addLast(new ChannelHandlerAdapter() {
+                            @Override
+                            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                received.add((UpdatePacket) msg);
+                            }
+                        });
+                    }
+                })
+                .bind(addr).sync().channel();
+        channel = new Bootstrap()
+                .group(group)
+                .channel(LocalChannel.class)
+                .handler(new ChannelHandlerAdapter())
+                .connect(addr).sync().channel();
+    }
+
+    @After
+    public void close() throws Exception {
+        channel.close().sync();
+        server.close().sync();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    }
+
+    @Test
+    public void keepsNewestPacketPerKeyInFirstQueuedOrder() throws Exception {
+        ConflatingQueue queue = new ConflatingQueue(channel);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        channel.eventLoop().execute(() -> {
+            blocked.countDown();
+            awaitUninterruptibly(release);
+        });
+        blocked.await();
+
+        queue.offer("a", new UpdatePacket("a", 1));
+        queue.offer("b", new UpdatePacket("b", 1));
+        queue.offer("a", new UpdatePacket("a", 2));
+        queue.offer("c", new UpdatePacket("c", 1));
+        queue.offer("b", new UpdatePacket("b", 2));
+        assertEquals(3, queue.size());
+        assertEquals(2, queue.getConflatedCount());
+        release.countDown();
+
+        awaitReceived(3);
+        assertEquals(Arrays.asList("a=2", "b=2", "c=1"), toStrings(received));
+        assertEquals(3, queue.getSentCount());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void concurrentOffersDeliverLatestUpdateOfEveryKey() throws Exception {
+        ConflatingQueue queue = new ConflatingQueue(channel);
+        int producers = 4;
+        int keysPerProducer = 16;
+        int updates = 20_000;
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads.add(new Thread(() -> {
+                for (int seq = 1; seq <= updates; seq++) {
+                    String key = producer + ":" + seq % keysPerProducer;
+                    queue.offer(key, new UpdatePacket(key, seq));
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (queue.getSentCount() + queue.getConflatedCount() < (long) producers * updates
+                && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals((long) producers * updates, queue.getSentCount() + queue.getConflatedCount());
+        awaitReceived((int) queue.getSentCount());
+        assertEquals(0, queue.size());
+
+        Map<String, Integer> latest = new ConcurrentHashMap<>();
+        for (UpdatePacket packet : received) {
+            Integer previous = latest.put(packet.key, packet.seq);
+            assertTrue("update of " + packet.key + " went back from " + previous + " to " + packet.seq,
+                    previous == null || previous < packet.seq);
+        }
+        assertEquals(producers * keysPerProducer, latest.size());
+        for (int p = 0; p < producers; p++) {
+            for (int k = 0; k < keysPerProducer; k++) {
+                int last = updates - ((updates - k) % keysPerProducer);
+                assertEquals("latest update of " + p + ":" + k,
+                        Integer.valueOf(last), latest.get(p + ":" + k));
+            }
+        }
+    }
+
+    @Test
+    public void clearDiscardsPendingPackets() throws Exception {
+        ConflatingQueue queue = new ConflatingQueue(channel);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        channel.eventLoop().execute(() -> {
+            blocked.countDown();
+            awaitUninterruptibly(release);
+        });
+        blocked.await();
+
+        queue.offer("a", new UpdatePacket("a", 1));
+        queue.clear();
+        assertEquals(0, queue.size());
+        release.countDown();
+
+        queue.offer("b", new UpdatePacket("b", 1));
+        awaitReceived(1);
+        assertEquals(Arrays.asList("b=1"), toStrings(received));
+    }
+
+    private void awaitReceived(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (received.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, received.size());
+    }
+
+    private static List<String> toStrings(List<UpdatePacket> packets) {
+        List<String> strings = new ArrayList<>();
+        for (UpdatePacket packet : packets) {
+            strings.add(packet.key + '=' + packet.seq);
+        }
+        return strings;
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class UpdatePacket extends Packet {
+
+        private final String key;
+        private final int seq;
+
+        UpdatePacket(String key, int seq) {
+            super((short) 0);
+            this.key = key;
+            this.seq = seq;
+        }
+
+        @Override
+        public void read(ByteBuf buf) {
+        }
+
+        @Override
+        public void write(ByteBuf buf) {
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package me.bennettca.nio.client;
+
+import io.netty.channel.ChannelException;
+import me.bennettca.nio.protocol.Packet;
+import me.bennettca.nio.server.ClientListener;
+import me.bennettca.nio.server.NioDataServer;
+import me.bennettca.nio.server.ServerEventHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ShardedDataClientTest {
+
+    private static final int KEYS = 3000;
+
+    private final List<NioDataServer> servers = new ArrayList<>();
+    private final List<InetSocketAddress> addrs = new ArrayList<>();
+    private final List<ShardedDataClient> clients = new ArrayList<>();
+
+    @Before
+    public void bind() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            int port;
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            NioDataServer server = new NioDataServer(null, 1);
+            server.addHandler(new ServerEventHandler() {
+                @Override
+                public void packetReceived(ClientListener client, Packet packet) {
+                }
+
+                @Override
+                public void clientConnected(ClientListener client) {
+                }
+
+                @Override
+                public void clientDisconnected(ClientListener client) {
+                }
+            });
+            server.bind(port).sync();
+            servers.add(server);
+            addrs.add(new InetSocketAddress("127.0.0.1", port));
+        }
+    }
+
+    @After
+    public void close() {
+        for (ShardedDataClient client : clients) {
+            client.close();
+        }
+        for (NioDataServer server : servers) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void routesKeysStablyAndEvenly() throws Exception {
+        ShardedDataClient client = connect(3);
+        Map<Integer, InetSocketAddress> routes = routes(client);
+        assertEquals(routes, routes(client));
+
+        Map<InetSocketAddress, Integer> counts = new HashMap<>();
+        for (InetSocketAddress addr : routes.values()) {
+            counts.merge(addr, 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            assertTrue("keys on one server: " + counts, count > KEYS / 3 / 2);
+        }
+    }
+
+    @Test
+    public void clientsWithSameEndpointsAgreeOnRoutes() throws Exception {
+        ShardedDataClient first = connect(3);
+        ShardedDataClient second = new ShardedDataClient();
+        clients.add(second);
+        // Added in another order, routes only depend on the addresses.
+        for (int i = 2; i >= 0; i--) {
+            second.addEndpoint(addrs.get(i)).sync();
+        }
+        assertEquals(routes(first), routes(second));
+    }
+
+    @Test
+    public void removingEndpointOnlyMovesItsKeys() throws Exception {
+        ShardedDataClient client = connect(3);
+        Map<Integer, InetSocketAddress> before = routes(client);
+
+        InetSocketAddress removed = addrs.get(1);
+        assertTrue(client.removeEndpoint(removed));
+        Map<Integer, InetSocketAddress> after = routes(client);
+
+        for (int key = 0; key < KEYS; key++) {
+            if (before.get(key).equals(removed)) {
+                assertNotEquals(removed, after.get(key));
+            } else {
+                assertEquals("key " + key, before.get(key), after.get(key));
+            }
+        }
+    }
+
+    @Test
+    public void addingEndpointOnlyMovesKeysToIt() throws Exception {
+        ShardedDataClient client = connect(3);
+        Map<Integer, InetSocketAddress> before = routes(client);
+
+        InetSocketAddress added = addrs.get(3);
+        client.addEndpoint(added).sync();
+        Map<Integer, InetSocketAddress> after = routes(client);
+
+        int moved = 0;
+        for (int key = 0; key < KEYS; key++) {
+            if (!before.get(key).equals(after.get(key))) {
+                assertEquals("key " + key, added, after.get(key));
+                moved++;
+            }
+        }
+        assertTrue("moved " + moved, moved > 0);
+    }
+
+    @Test
+    public void unhealthyEndpointIsSkippedUntilHealthy() throws Exception {
+        ShardedDataClient client = connect(3);
+        Map<Integer, InetSocketAddress> before = routes(client);
+
+        InetSocketAddress unhealthy = addrs.get(0);
+        assertTrue(client.setHealthy(unhealthy, false));
+        Map<Integer, InetSocketAddress> skipped = routes(client);
+        for (int key = 0; key < KEYS; key++) {
+            if (before.get(key).equals(unhealthy)) {
+                assertNotEquals(unhealthy, skipped.get(key));
+            } else {
+                assertEquals("key " + key, before.get(key), skipped.get(key));
+            }
+        }
+
+        client.setHealthy(unhealthy, true);
+        assertEquals(before, routes(client));
+    }
+
+    @Test(expected = ChannelException.class)
+    public void failsWithoutHealthyEndpoint() throws Exception {
+        ShardedDataClient client = connect(1);
+        client.setHealthy(addrs.get(0), false);
+        client.route("key");
+    }
+
+    private ShardedDataClient connect(int endpoints) throws Exception {
+        ShardedDataClient client = new ShardedDataClient();
+        clients.add(client);
+        for (int i = 0; i < endpoints; i++) {
+            client.addEndpoint(addrs.get(i)).sync();
+        }
+        return client;
+    }
+
+    private static Map<Integer, InetSocketAddress> routes(ShardedDataClient client) {
+        Map<DataClient, InetSocketAddress> endpoints = new IdentityHashMap<>();
+        for (InetSocketAddress addr : client.getEndpoints()) {
+            endpoints.put(client.getClient(addr), addr);
+        }
+        Map<Integer, InetSocketAddress> routes = new HashMap<>();
+        for (int key = 0; key < KEYS; key++) {
+            routes.put(key, endpoints.get(client.route("user-" + key)));
+        }
+        return routes;
+    }
+}
@@ -0,0 +1,156 @@
+package me.bennettca.nio.request;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class InFlightWindowTest {
+
+    @Test
+    public void rejectFailsOnceFull() {
+        InFlightWindow window = new InFlightWindow(2, InFlightWindow.OverflowPolicy.REJECT);
+        assertTrue(window.acquire(null, 1, TimeUnit.SECONDS, true));
+        assertTrue(window.acquire(null, 1, TimeUnit.SECONDS, true));
+        try {
+            window.acquire(null, 1, TimeUnit.SECONDS, true);
+            fail("expected rejection");
+        } catch (RequestRejectedException expected) {
+        }
+        assertEquals(1, window.getRejectedCount());
+
+        window.release();
+        assertTrue(window.acquire(null, 1, TimeUnit.SECONDS, true));
+        assertEquals(2, window.getPeakInFlight());
+    }
+
+    @Test
+    public void blockWaitsForRelease() throws Exception {
+        InFlightWindow window = new InFlightWindow(1, InFlightWindow.OverflowPolicy.BLOCK);
+        assertTrue(window.acquire(null, 1, TimeUnit.SECONDS, true));
+
+        CountDownLatch blocked = new CountDownLatch(1);
+        AtomicBoolean acquired = new AtomicBoolean();
+        Thread thread = new Thread(() -> {
+            blocked.countDown();
+            acquired.set(window.acquire(null, 10, TimeUnit.SECONDS, true));
+        });
+        thread.start();
+        blocked.await();
+        Thread.sleep(50);
+        assertFalse(acquired.get());
+
+        window.release();
+        thread.join(5000);
+        assertTrue(acquired.get());
+        assertEquals(1, window.getInFlight());
+        assertEquals(1, window.getBlockedCount());
+    }
+
+    @Test
+    public void blockTimesOut() {
+        InFlightWindow window = new InFlightWindow(1, InFlightWindow.OverflowPolicy.BLOCK);
+        assertTrue(window.acquire(null, 1, TimeUnit.SECONDS, true));
+        long start = System.nanoTime();
+        try {
+            window.acquire(null, 50, TimeUnit.MILLISECONDS, true);
+            fail("expected rejection");
+        } catch (RequestRejectedException expected) {
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void blockRejectsThreadsWhichMustNotBlock() {
+        InFlightWindow window = new InFlightWindow(1, InFlightWindow.OverflowPolicy.BLOCK);
+        assertTrue(window.acquire(null, 1, TimeUnit.SECONDS, false));
+        long start = System.nanoTime();
+        try {
+            window.acquire(null, 10, TimeUnit.SECONDS, false);
+            fail("expected rejection");
+        } catch (RequestRejectedException expected) {
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(0, window.getBlockedCount());
+    }
+
+    @Test
+    public void queueHandsReleasedSlotsToOldestRequest() {
+        InFlightWindow window = new InFlightWindow(1, InFlightWindow.OverflowPolicy.QUEUE, 2);
+        List<String> events = new ArrayList<>();
+        assertTrue(window.acquire(new TestDeferred("a", events), 1, TimeUnit.SECONDS, true));
+        assertFalse(window.acquire(new TestDeferred("b", events), 1, TimeUnit.SECONDS, true));
+        assertFalse(window.acquire(new TestDeferred("c", events), 1, TimeUnit.SECONDS, true));
+        try {
+            window.acquire(new TestDeferred("d", events), 1, TimeUnit.SECONDS, true);
+            fail("expected rejection");
+        } catch (RequestRejectedException expected) {
+        }
+        assertEquals(2, window.getQueued());
+
+        window.release();
+        window.release();
+        assertEquals(1, window.getInFlight());
+        window.release();
+        assertEquals(0, window.getInFlight());
+        assertEquals(Arrays.asList("run b", "run c"), events);
+    }
+
+    @Test
+    public void failQueuedOnlyFailsRequestsOfPool() {
+        InFlightWindow window = new InFlightWindow(1, InFlightWindow.OverflowPolicy.QUEUE, 4);
+        RequestPool pool = new RequestPool() {
+            @Override
+            protected void schedule(Runnable task, long delay, TimeUnit unit) {
+            }
+        };
+        List<String> events = new ArrayList<>();
+        assertTrue(window.acquire(new TestDeferred("a", events), 1, TimeUnit.SECONDS, true));
+        window.acquire(new TestDeferred("b", events, pool), 1, TimeUnit.SECONDS, true);
+        window.acquire(new TestDeferred("c", events), 1, TimeUnit.SECONDS, true);
+
+        window.failQueued(pool, new RequestFailedException("closed"));
+        assertEquals(Arrays.asList("fail b"), events);
+
+        window.release();
+        assertEquals(Arrays.asList("fail b", "run c"), events);
+    }
+
+    private static final class TestDeferred implements InFlightWindow.Deferred {
+
+        private final String name;
+        private final List<String> events;
+        private final RequestPool pool;
+
+        TestDeferred(String name, List<String> events) {
+            this(name, events, null);
+        }
+
+        TestDeferred(String name, List<String> events, RequestPool pool) {
+            this.name = name;
+            this.events = events;
+            this.pool = pool;
+        }
+
+        @Override
+        public void run() {
+            events.add("run " + name);
+        }
+
+        @Override
+        public void fail(Throwable cause) {
+            events.add("fail " + name);
+        }
+
+        @Override
+        public RequestPool getPool() {
+            return pool;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package me.bennettca.nio.request;
+
+import me.bennettca.nio.BufferedPacket;
+import me.bennettca.nio.protocol.Idempotent;
+import me.bennettca.nio.protocol.packet.OverloadedPacket;
+import me.bennettca.nio.protocol.packet.RequestPacket;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RequestPoolTest {
+
+    @Test
+    public void takeFindsEveryRemainingRequestAfterRemovals() {
+        TestPool pool = new TestPool(100, TimeUnit.MILLISECONDS);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            ids.add(pool.track(new DefaultRequest(new CountingHandler())));
+        }
+        assertEquals(10_000, pool.size());
+
+        Collections.shuffle(ids, new Random(42));
+        List<Long> removed = ids.subList(0, 5_000);
+        for (long id : removed) {
+            assertNotNull("request " + id, pool.take(id));
+        }
+        for (long id : removed) {
+            assertNull("request " + id, pool.take(id));
+        }
+        for (long id : ids.subList(5_000, ids.size())) {
+            assertNotNull("request " + id, pool.take(id));
+        }
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void completeCallsHandlerOnce() {
+        TestPool pool = new TestPool(100, TimeUnit.MILLISECONDS);
+        CountingHandler handler = new CountingHandler();
+        long id = pool.track(new DefaultRequest(handler));
+
+        assertTrue(pool.complete(id, new BufferedPacket()));
+        assertFalse(pool.complete(id, new BufferedPacket()));
+        assertEquals(1, handler.received.get());
+        assertEquals(0, handler.failed.get());
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void overloadedResponseFailsRequest() {
+        TestPool pool = new TestPool(100, TimeUnit.MILLISECONDS);
+        CountingHandler handler = new CountingHandler();
+        long id = pool.track(new DefaultRequest(handler));
+
+        assertTrue(pool.complete(id, OverloadedPacket.INSTANCE));
+        assertEquals(0, handler.received.get());
+        assertEquals(1, handler.failed.get());
+    }
+
+    @Test
+    public void expiresOnlyRequestsPastTheirDeadline() throws InterruptedException {
+        TestPool pool = new TestPool(1, TimeUnit.MILLISECONDS);
+        CountingHandler shortHandler = new CountingHandler();
+        CountingHandler longHandler = new CountingHandler();
+        pool.track(new DefaultRequest(shortHandler), 5, TimeUnit.MILLISECONDS);
+        long longId = pool.track(new DefaultRequest(longHandler), 10, TimeUnit.SECONDS);
+        assertEquals(1, pool.scheduled.size());
+
+        Thread.sleep(20);
+        pool.runScheduled();
+
+        assertEquals(1, shortHandler.failed.get());
+        assertEquals(0, longHandler.failed.get());
+        assertEquals(1, pool.size());
+        // Still ticking while a request is outstanding.
+        assertEquals(1, pool.scheduled.size());
+
+        assertNotNull(pool.take(longId));
+        pool.runScheduled();
+        assertTrue(pool.scheduled.isEmpty());
+    }
+
+    @Test
+    public void timeoutLongerThanWheelDoesNotExpireEarly() throws InterruptedException {
+        // 512 ticks of 1ms, so the deadline shares a bucket with an earlier tick.
+        TestPool pool = new TestPool(1, TimeUnit.MILLISECONDS);
+        CountingHandler handler = new CountingHandler();
+        pool.track(new DefaultRequest(handler), 700, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(400)) {
+            Thread.sleep(5);
+            pool.runScheduled();
+        }
+        assertEquals(0, handler.failed.get());
+
+        Thread.sleep(400);
+        pool.runScheduled();
+        assertEquals(1, handler.failed.get());
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void clearNonIdempotentKeepsIdempotentRequestsInOrder() {
+        TestPool pool = new TestPool(100, TimeUnit.MILLISECONDS);
+        CountingHandler handler = new CountingHandler();
+        long first = pool.track(new DefaultRequest(handler), new IdempotentPacket(), null, 10, TimeUnit.SECONDS);
+        pool.track(new DefaultRequest(handler), new BufferedPacket(), null, 10, TimeUnit.SECONDS);
+        long second = pool.track(new DefaultRequest(handler), new IdempotentPacket(), null, 10, TimeUnit.SECONDS);
+
+        pool.clearNonIdempotent();
+
+        assertEquals(1, handler.failed.get());
+        assertEquals(2, pool.size());
+        List<RequestPacket> replay = pool.idempotentRequests();
+        assertEquals(2, replay.size());
+        assertEquals(first, replay.get(0).getUniqueId());
+        assertEquals(second, replay.get(1).getUniqueId());
+
+        pool.clear();
+        assertEquals(3, handler.failed.get());
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void releasesWindowSlotOnceForEveryOutcome() throws InterruptedException {
+        TestPool pool = new TestPool(1, TimeUnit.MILLISECONDS);
+        InFlightWindow window = new InFlightWindow(4, InFlightWindow.OverflowPolicy.REJECT);
+        pool.setWindow(window);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(window.acquire(null, 1, TimeUnit.SECONDS, false));
+        }
+        long completed = pool.track(new DefaultRequest(new CountingHandler()));
+        long taken = pool.track(new DefaultRequest(new CountingHandler()));
+        pool.track(new DefaultRequest(new CountingHandler()), 2, TimeUnit.MILLISECONDS);
+        pool.track(new DefaultRequest(new CountingHandler()));
+
+        pool.complete(completed, new BufferedPacket());
+        pool.complete(completed, new BufferedPacket());
+        pool.take(taken);
+        pool.take(taken);
+        Thread.sleep(10);
+        pool.runScheduled();
+        pool.clear();
+
+        assertEquals(0, window.getInFlight());
+    }
+
+    private static final class TestPool extends RequestPool {
+
+        private final List<Runnable> scheduled = new ArrayList<>();
+
+        TestPool(long tickDuration, TimeUnit unit) {
+            super(tickDuration, unit);
+        }
+
+        @Override
+        protected void schedule(Runnable task, long delay, TimeUnit unit) {
+            scheduled.add(task);
+        }
+
+        void runScheduled() {
+            List<Runnable> tasks = new ArrayList<>(scheduled);
+            scheduled.clear();
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+    }
+
+    private static final class CountingHandler implements ResponseHandler {
+
+        private final AtomicInteger received = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+
+        @Override
+        public void responseReceived(Response response) {
+            received.incrementAndGet();
+        }
+
+        @Override
+        public void requestFailed() {
+            failed.incrementAndGet();
+        }
+    }
+
+    public static final class IdempotentPacket extends BufferedPacket implements Idempotent {
+    }
+}
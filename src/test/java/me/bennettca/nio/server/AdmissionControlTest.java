@@ -0,0 +1,168 @@
+package me.bennettca.nio.server;
+
+import me.bennettca.nio.protocol.Packet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.*;
+
+public class AdmissionControlTest {
+
+    private NioDataServer server;
+    private int port;
+    private final List<Socket> sockets = new ArrayList<>();
+
+    @Before
+    public void bind() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new NioDataServer(null, 1);
+        server.addHandler(new ServerEventHandler() {
+            @Override
+            public void packetReceived(ClientListener client, Packet packet) {
+            }
+
+            @Override
+            public void clientConnected(ClientListener client) {
+            }
+
+            @Override
+            public void clientDisconnected(ClientListener client) {
+            }
+        });
+    }
+
+    @After
+    public void close() throws IOException {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        server.close();
+    }
+
+    @Test
+    public void rejectsConnectionsBeyondLimitAndReleasesClosedOnes() throws Exception {
+        AdmissionControl control = new AdmissionControl(2, 0);
+        server.setAdmissionControl(control);
+        server.bind(port).sync();
+
+        Socket first = connect();
+        connect();
+        awaitCount(control::getAcceptedCount, 2);
+        Socket rejected = connect();
+        awaitCount(control::getRejectedCount, 1);
+        assertTrue(isClosedByServer(rejected));
+        assertEquals(2, control.getConnections());
+
+        first.close();
+        awaitCount(() -> 2 - control.getConnections(), 1);
+        connect();
+        awaitCount(control::getAcceptedCount, 3);
+        assertEquals(2, control.getConnections());
+    }
+
+    @Test
+    public void limitsConnectionsPerAddress() throws Exception {
+        AdmissionControl control = new AdmissionControl(0, 1);
+        server.setAdmissionControl(control);
+        server.bind(port).sync();
+
+        connect();
+        connect();
+        awaitCount(control::getRejectedCount, 1);
+        assertEquals(1, control.getAcceptedCount());
+        assertEquals(1, control.getConnections());
+    }
+
+    @Test
+    public void tokenBucketAdmitsBurstThenRefillRate() throws Exception {
+        AdmissionControl control = new AdmissionControl(0, 0, 10, 2, 100);
+        server.setAdmissionControl(control);
+        server.bind(port).sync();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            connect();
+        }
+        awaitCount(control::getAcceptedCount, 5);
+        long elapsed = System.nanoTime() - start;
+
+        // Two sockets are admitted by the burst, three wait 100ms each for a token.
+        assertEquals(3, control.getQueuedCount());
+        assertTrue("admitted after " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms",
+                elapsed >= TimeUnit.MILLISECONDS.toNanos(250));
+        assertEquals(0, control.getRejectedCount());
+    }
+
+    @Test
+    public void rejectsConnectionsBeyondQueueLimit() throws Exception {
+        AdmissionControl control = new AdmissionControl(0, 0, 1, 1, 1);
+        server.setAdmissionControl(control);
+        server.bind(port).sync();
+
+        for (int i = 0; i < 3; i++) {
+            connect();
+        }
+        awaitCount(control::getRejectedCount, 1);
+        assertEquals(1, control.getAcceptedCount());
+        assertEquals(1, control.getQueuedCount());
+    }
+
+    @Test
+    public void replacementAdmitsQueuedConnectionsUnderNewLimits() throws Exception {
+        AdmissionControl slow = new AdmissionControl(0, 0, 1, 1, 10);
+        server.setAdmissionControl(slow);
+        server.bind(port).sync();
+
+        for (int i = 0; i < 3; i++) {
+            connect();
+        }
+        awaitCount(slow::getQueuedCount, 2);
+
+        AdmissionControl replacement = new AdmissionControl(1, 0);
+        server.setAdmissionControl(replacement);
+        awaitCount(() -> replacement.getAcceptedCount() + replacement.getRejectedCount(), 2);
+
+        assertEquals(1, slow.getAcceptedCount());
+        assertEquals(1, replacement.getAcceptedCount());
+        assertEquals(1, replacement.getRejectedCount());
+        assertEquals(1, replacement.getConnections());
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        sockets.add(socket);
+        return socket;
+    }
+
+    private static boolean isClosedByServer(Socket socket) throws IOException {
+        socket.setSoTimeout(5000);
+        try {
+            return socket.getInputStream().read() == -1;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            // Reset by the forcible close.
+            return true;
+        }
+    }
+
+    private static void awaitCount(LongSupplier count, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (count.getAsLong() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, count.getAsLong());
+    }
+}
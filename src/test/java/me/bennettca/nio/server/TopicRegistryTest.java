@@ -0,0 +1,109 @@
+package me.bennettca.nio.server;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class TopicRegistryTest {
+
+    private final TopicRegistry topics = new TopicRegistry();
+
+    @Test
+    public void exactTopicMatchesOnlyItself() {
+        ClientListener client = newClient();
+        assertTrue(topics.subscribe(client, "prices.eu.btc"));
+        assertFalse(topics.subscribe(client, "prices.eu.btc"));
+
+        assertEquals(Collections.singleton(client), topics.subscribers("prices.eu.btc"));
+        assertTrue(topics.subscribers("prices.eu").isEmpty());
+        assertTrue(topics.subscribers("prices.eu.btc.usd").isEmpty());
+        assertTrue(topics.subscribers("prices.us.btc").isEmpty());
+    }
+
+    @Test
+    public void singleLevelWildcardMatchesExactlyOneLevel() {
+        ClientListener client = newClient();
+        topics.subscribe(client, "prices.*.btc");
+
+        assertEquals(Collections.singleton(client), topics.subscribers("prices.eu.btc"));
+        assertEquals(Collections.singleton(client), topics.subscribers("prices.us.btc"));
+        assertTrue(topics.subscribers("prices.btc").isEmpty());
+        assertTrue(topics.subscribers("prices.eu.west.btc").isEmpty());
+    }
+
+    @Test
+    public void multiLevelWildcardMatchesAnyRemainingLevels() {
+        ClientListener client = newClient();
+        topics.subscribe(client, "prices.#");
+
+        assertEquals(Collections.singleton(client), topics.subscribers("prices"));
+        assertEquals(Collections.singleton(client), topics.subscribers("prices.eu"));
+        assertEquals(Collections.singleton(client), topics.subscribers("prices.eu.btc.usd"));
+        assertTrue(topics.subscribers("trades.eu").isEmpty());
+    }
+
+    @Test
+    public void overlappingSubscriptionsMatchClientOnce() {
+        ClientListener a = newClient();
+        ClientListener b = newClient();
+        topics.subscribe(a, "prices.eu.btc");
+        topics.subscribe(a, "prices.*.btc");
+        topics.subscribe(a, "#");
+        topics.subscribe(b, "prices.*.*");
+
+        assertEquals(new HashSet<>(Arrays.asList(a, b)), topics.subscribers("prices.eu.btc"));
+        assertEquals(Collections.singleton(a), topics.subscribers("trades"));
+    }
+
+    @Test
+    public void unsubscribeRemovesOnlyThatSubscription() {
+        ClientListener client = newClient();
+        topics.subscribe(client, "prices.*");
+        topics.subscribe(client, "prices.eu");
+
+        assertTrue(topics.unsubscribe(client, "prices.*"));
+        assertFalse(topics.unsubscribe(client, "prices.*"));
+        assertEquals(Collections.singleton(client), topics.subscribers("prices.eu"));
+        assertTrue(topics.subscribers("prices.us").isEmpty());
+        assertEquals(Collections.singleton("prices.eu"), topics.getTopics(client));
+
+        topics.unsubscribeAll(client);
+        assertTrue(topics.subscribers("prices.eu").isEmpty());
+        assertTrue(topics.getTopics(client).isEmpty());
+    }
+
+    @Test
+    public void disconnectedClientIsNotSubscribed() {
+        ClientListener client = newClient();
+        client.disconnected();
+
+        assertFalse(topics.subscribe(client, "prices.eu"));
+        assertTrue(topics.subscribers("prices.eu").isEmpty());
+    }
+
+    @Test
+    public void invalidTopicsAreRejected() {
+        ClientListener client = newClient();
+        for (String topic : new String[] {"", "prices..eu", "prices.", "prices.e*", "prices.#.eu"}) {
+            try {
+                topics.subscribe(client, topic);
+                fail("expected rejection of " + topic);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        try {
+            topics.subscribers("prices.*");
+            fail("expected rejection of a wildcard topic");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static ClientListener newClient() {
+        return new ClientListener(null, new EmbeddedChannel(), Runnable::run, null);
+    }
+}